@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.beacon;
+
+/**
+ * Single event reported to the Meganet server. Serialized as one line of JSON.
+ */
+public class Beacon {
+
+    /**
+     * Kind of the event.
+     */
+    private final BeaconType mType;
+
+    /**
+     * Ad zone, i.e. the Burstly view id.
+     */
+    private final String mZone;
+
+    /**
+     * {@link System#currentTimeMillis()} of the event.
+     */
+    private final long mTime;
+
+    /**
+     * Visible duration in milliseconds for view sessions, 0 otherwise.
+     */
+    private final long mDuration;
+
+    /**
+     * Transaction outcome or null.
+     */
+    private final String mOutcome;
+
+    /**
+     * Constructs new instance.
+     */
+    private Beacon(final BeaconType type, final String zone, final long duration, final String outcome) {
+        mType = type;
+        mZone = zone;
+        mTime = System.currentTimeMillis();
+        mDuration = duration;
+        mOutcome = outcome;
+    }
+
+    /**
+     * Creates an impression event.
+     */
+    public static Beacon impression(final String zone) {
+        return new Beacon(BeaconType.IMPRESSION, zone, 0, null);
+    }
+
+    /**
+     * Creates a view session event.
+     * 
+     * @param zone ad zone
+     * @param duration visible duration in milliseconds
+     */
+    public static Beacon viewSession(final String zone, final long duration) {
+        return new Beacon(BeaconType.VIEW_SESSION, zone, duration, null);
+    }
+
+    /**
+     * Creates a transaction outcome event.
+     * 
+     * @param zone ad zone
+     * @param outcome outcome of the transaction, e.g. transaction code name
+     */
+    public static Beacon transaction(final String zone, final String outcome) {
+        return new Beacon(BeaconType.TRANSACTION, zone, 0, outcome);
+    }
+
+    /**
+     * Returns kind of the event.
+     */
+    public BeaconType getType() {
+        return mType;
+    }
+
+    /**
+     * Serializes the event as a single line of JSON without the line separator.
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder(96);
+        json.append("{\"type\":\"").append(mType.getWireName()).append('"');
+        json.append(",\"zone\":");
+        appendString(json, mZone);
+        json.append(",\"time\":").append(mTime);
+        if (mType == BeaconType.VIEW_SESSION) {
+            json.append(",\"duration\":").append(mDuration);
+        }
+        if (mOutcome != null) {
+            json.append(",\"outcome\":");
+            appendString(json, mOutcome);
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Appends a JSON string literal.
+     */
+    private static void appendString(final StringBuilder json, final String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", Integer.valueOf(c)));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+
+}
@@ -0,0 +1,242 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.beacon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import com.meganet.utils.Logger;
+
+/**
+ * Append-only disk log of beacons which survives process restarts.
+ * <p>
+ * New beacons are appended to the active file, one JSON line each. A flush renames the active file
+ * to the batch file and uploads it; the batch file is deleted only after the server accepted it, so
+ * a beacon may be sent twice but never lost. Lines are encoded as UTF-8 whatever the platform
+ * charset. Not thread safe, used from the beacon thread only.
+ */
+class BeaconLog {
+
+    /**
+     * Name of the file new beacons are appended to.
+     */
+    private static final String ACTIVE_FILE = "beacons.log";
+
+    /**
+     * Name of the file being uploaded.
+     */
+    private static final String BATCH_FILE = "beacons.batch";
+
+    /**
+     * Size of the buffer used to read the batch.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Encoding of the log lines.
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * File new beacons are appended to.
+     */
+    private final File mActive;
+
+    /**
+     * File being uploaded.
+     */
+    private final File mBatch;
+
+    /**
+     * Maximum size of the active file in bytes.
+     */
+    private long mMaxBytes;
+
+    /**
+     * Number of beacons in the active file.
+     */
+    private int mCount;
+
+    /**
+     * Constructs new instance counting beacons left by the previous process.
+     * 
+     * @param directory directory of the log files
+     * @param maxBytes maximum size of the active file in bytes
+     */
+    BeaconLog(final File directory, final long maxBytes) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Logger.logWarning(this, "Could not create beacon directory {}", directory);
+        }
+        mActive = new File(directory, ACTIVE_FILE);
+        mBatch = new File(directory, BATCH_FILE);
+        mMaxBytes = maxBytes;
+        try {
+            mCount = countLines(readFile(mActive));
+        }
+        catch (final IOException e) {
+            mCount = 0;
+        }
+    }
+
+    /**
+     * Changes maximum size of the active file.
+     */
+    void setMaxBytes(final long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * Appends beacons to the active file while it fits into the size limit.
+     * 
+     * @param lines serialized beacons
+     * @return number of appended beacons, the rest are dropped
+     */
+    int append(final List<String> lines) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        long size = mActive.length();
+        int appended = 0;
+        for (final String line : lines) {
+            final byte[] bytes = (line + '\n').getBytes(UTF_8);
+            if (size + bytes.length > mMaxBytes) {
+                break;
+            }
+            buffer.write(bytes, 0, bytes.length);
+            size += bytes.length;
+            appended++;
+        }
+        if (appended == 0) {
+            return 0;
+        }
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(mActive, true);
+            buffer.writeTo(out);
+            mCount += appended;
+            return appended;
+        }
+        catch (final IOException e) {
+            Logger.logWarning(this, "Could not append beacons: {}", e.getMessage());
+            return 0;
+        }
+        finally {
+            close(out);
+        }
+    }
+
+    /**
+     * Returns number of beacons in the active file.
+     */
+    int getCount() {
+        return mCount;
+    }
+
+    /**
+     * Returns the batch to upload: the batch left by a failed upload or the active file which becomes
+     * the batch. A line torn by a crash is dropped.
+     * 
+     * @return serialized beacons separated by new lines or null if there is nothing to upload
+     */
+    byte[] takeBatch() throws IOException {
+        if (!mBatch.exists()) {
+            if (mActive.length() == 0) {
+                return null;
+            }
+            if (!mActive.renameTo(mBatch)) {
+                throw new IOException("Could not rename " + mActive);
+            }
+            mCount = 0;
+        }
+        final byte[] batch = readFile(mBatch);
+        int end = batch.length;
+        while (end > 0 && batch[end - 1] != '\n') {
+            end--;
+        }
+        if (end == 0) {
+            mBatch.delete();
+            return null;
+        }
+        if (end == batch.length) {
+            return batch;
+        }
+        final byte[] complete = new byte[end];
+        System.arraycopy(batch, 0, complete, 0, end);
+        return complete;
+    }
+
+    /**
+     * Deletes the batch after it was accepted by the server.
+     */
+    void commitBatch() {
+        mBatch.delete();
+    }
+
+    /**
+     * Returns number of beacons in the serialized batch.
+     */
+    static int countLines(final byte[] data) {
+        int count = 0;
+        for (final byte b : data) {
+            if (b == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Reads the whole file or returns an empty array if there is no file.
+     */
+    private static byte[] readFile(final File file) throws IOException {
+        if (!file.exists()) {
+            return new byte[0];
+        }
+        final InputStream in = new FileInputStream(file);
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream((int)file.length());
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Closes the stream ignoring any errors.
+     */
+    private static void close(final OutputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            }
+            catch (final IOException e) {
+                // nothing to do here
+            }
+        }
+    }
+
+}
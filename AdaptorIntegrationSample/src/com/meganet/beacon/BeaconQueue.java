@@ -0,0 +1,363 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.beacon;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.network.CreativeExecutor;
+import com.meganet.utils.Logger;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Batched, persistent delivery of beacons to the Meganet server.
+ * <p>
+ * {@link #add(Beacon)} only puts the beacon to a bounded in-memory queue, so it is safe to call on
+ * the ad path. A single background thread appends queued beacons to {@link BeaconLog} and uploads
+ * the log as one gzip compressed request when enough beacons are collected, when the flush interval
+ * passes or when the network becomes available. Delivery is at least once: a batch is deleted only
+ * after the server accepted it.
+ * <p>
+ * Beacons are reported only if the server url is passed in the factory parameters.
+ */
+public final class BeaconQueue {
+
+    /**
+     * A key for the beacon server url being passed in factory parameters.
+     */
+    public static final String BEACON_URL = "beaconUrl";
+
+    /**
+     * A key for the number of beacons which triggers a flush being passed in factory parameters.
+     */
+    public static final String BEACON_BATCH_SIZE = "beaconBatchSize";
+
+    /**
+     * A key for the flush interval in milliseconds being passed in factory parameters.
+     */
+    public static final String BEACON_FLUSH_INTERVAL = "beaconFlushInterval";
+
+    /**
+     * A key for the maximum size of the beacon log in bytes being passed in factory parameters.
+     */
+    public static final String BEACON_LOG_SIZE = "beaconLogSize";
+
+    /**
+     * Default number of beacons which triggers a flush.
+     */
+    private static final int DEFAULT_BATCH_SIZE = 20;
+
+    /**
+     * Default flush interval (one minute).
+     */
+    private static final long DEFAULT_FLUSH_INTERVAL = 60 * 1000L;
+
+    /**
+     * Default maximum size of the beacon log in bytes.
+     */
+    private static final long DEFAULT_LOG_SIZE = 256 * 1024;
+
+    /**
+     * Maximum number of beacons waiting to be written to the log.
+     */
+    private static final int MAX_QUEUED = 256;
+
+    /**
+     * Connect and read timeout of the upload in milliseconds.
+     */
+    private static final int TIMEOUT = 10000;
+
+    /**
+     * HTTP 429, not defined in {@link HttpURLConnection}.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Name of the beacon log directory in the application files directory.
+     */
+    private static final String DIRECTORY = "meganet";
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final BeaconQueue INSTANCE = new BeaconQueue();
+
+    /**
+     * The beacon thread.
+     */
+    private final ScheduledExecutorService mExecutor =
+        Executors.newSingleThreadScheduledExecutor(new CreativeExecutor.FetchThreadFactory("Meganet beacons"));
+
+    /**
+     * Beacons waiting to be written to the log.
+     */
+    private final List<Beacon> mQueued = new ArrayList<Beacon>();
+
+    /**
+     * Specifies whether writing of the queued beacons is scheduled.
+     */
+    private boolean mIsWriteScheduled;
+
+    /**
+     * Beacon server url or null if beacons are not reported.
+     */
+    private volatile String mUrl;
+
+    /**
+     * Number of beacons which triggers a flush.
+     */
+    private volatile int mBatchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Flush interval in milliseconds.
+     */
+    private volatile long mFlushInterval = DEFAULT_FLUSH_INTERVAL;
+
+    /**
+     * Maximum size of the beacon log in bytes.
+     */
+    private volatile long mMaxLogBytes = DEFAULT_LOG_SIZE;
+
+    /**
+     * Log of beacons, accessed from the beacon thread only. Null until started.
+     */
+    private BeaconLog mLog;
+
+    /**
+     * Specifies whether the queue was started.
+     */
+    private boolean mIsStarted;
+
+    /**
+     * Flushes the log when the network becomes available.
+     */
+    private static class ConnectivityReceiver extends BroadcastReceiver {
+
+        @Override
+        public void onReceive(final Context context, final Intent intent) {
+            if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+                INSTANCE.flushLater();
+            }
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private BeaconQueue() {
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static BeaconQueue getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the server url and flush settings from the factory initialization parameters.
+     */
+    public void configure(final Map<String, ?> params) {
+        final Object url = params != null ? params.get(BEACON_URL) : null;
+        mUrl = url instanceof String && ((String)url).length() > 0 ? (String)url : null;
+        mBatchSize = Math.max(1, ParameterUtils.getInt(params, BEACON_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        mFlushInterval = Math.max(1000, ParameterUtils.getLong(params, BEACON_FLUSH_INTERVAL, DEFAULT_FLUSH_INTERVAL));
+        mMaxLogBytes = ParameterUtils.getLong(params, BEACON_LOG_SIZE, DEFAULT_LOG_SIZE);
+    }
+
+    /**
+     * Opens the log in the application files directory, starts periodic flushes and listens for
+     * connectivity changes. Subsequent calls are ignored, so are the calls without the server url.
+     */
+    public synchronized void start(final Context context) {
+        if (mIsStarted || mUrl == null || context == null) {
+            return;
+        }
+        mIsStarted = true;
+        final Context application = context.getApplicationContext() != null ? context.getApplicationContext()
+            : context;
+        final File directory = new File(application.getFilesDir(), DIRECTORY);
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                mLog = new BeaconLog(directory, mMaxLogBytes);
+            }
+
+        });
+        mExecutor.scheduleWithFixedDelay(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+
+        }, mFlushInterval, mFlushInterval, TimeUnit.MILLISECONDS);
+        // the sticky broadcast is delivered right away, so beacons left by the previous process go first
+        application.registerReceiver(new ConnectivityReceiver(), new IntentFilter(
+            ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    /**
+     * Queues the beacon. Does no IO, so can be called from the main thread. The beacon is dropped if
+     * the queue is full or beacons are not reported.
+     */
+    public void add(final Beacon beacon) {
+        synchronized (this) {
+            if (!mIsStarted) {
+                return;
+            }
+            if (mQueued.size() >= MAX_QUEUED) {
+                AdaptorMetrics.getInstance().increment(Counter.BEACONS_DROPPED);
+                return;
+            }
+            mQueued.add(beacon);
+            if (mIsWriteScheduled) {
+                return;
+            }
+            mIsWriteScheduled = true;
+        }
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                write();
+            }
+
+        });
+    }
+
+    /**
+     * Schedules a flush on the beacon thread.
+     */
+    void flushLater() {
+        mExecutor.execute(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+
+        });
+    }
+
+    /**
+     * Appends queued beacons to the log and flushes it if enough beacons are collected.
+     */
+    private void write() {
+        final List<String> lines;
+        synchronized (this) {
+            mIsWriteScheduled = false;
+            lines = new ArrayList<String>(mQueued.size());
+            for (final Beacon beacon : mQueued) {
+                lines.add(beacon.toJson());
+            }
+            mQueued.clear();
+        }
+        mLog.setMaxBytes(mMaxLogBytes);
+        final int dropped = lines.size() - mLog.append(lines);
+        if (dropped > 0) {
+            AdaptorMetrics.getInstance().add(Counter.BEACONS_DROPPED, dropped);
+        }
+        if (mLog.getCount() >= mBatchSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Uploads the log batch by batch until it is empty or an upload fails.
+     */
+    private void flush() {
+        try {
+            byte[] batch;
+            while ((batch = mLog.takeBatch()) != null) {
+                if (!upload(batch)) {
+                    return;
+                }
+                mLog.commitBatch();
+                AdaptorMetrics.getInstance().add(Counter.BEACONS_SENT, BeaconLog.countLines(batch));
+            }
+        }
+        catch (final IOException e) {
+            Logger.logWarning(this, "Could not upload beacons: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Posts the compressed batch to the server.
+     * 
+     * @return true if the batch is done with, i.e. accepted or rejected for good
+     */
+    private boolean upload(final byte[] batch) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream(batch.length / 4);
+        final GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(batch);
+        gzip.close();
+
+        final HttpURLConnection connection = (HttpURLConnection)new URL(mUrl).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT);
+            connection.setReadTimeout(TIMEOUT);
+            connection.setUseCaches(false);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("Content-Type", "application/x-ndjson; charset=utf-8");
+            connection.setRequestProperty("Content-Encoding", "gzip");
+            connection.setFixedLengthStreamingMode(compressed.size());
+            final OutputStream out = connection.getOutputStream();
+            try {
+                compressed.writeTo(out);
+            }
+            finally {
+                out.close();
+            }
+            final int code = connection.getResponseCode();
+            if (code / 100 == 2) {
+                return true;
+            }
+            if (code / 100 == 4 && code != HttpURLConnection.HTTP_CLIENT_TIMEOUT && code != TOO_MANY_REQUESTS) {
+                // resending a batch the server can not parse would block the log forever
+                Logger.logError(this, "Beacon batch rejected with code {}", Integer.valueOf(code));
+                return true;
+            }
+            Logger.logWarning(this, "Beacon upload failed with code {}", Integer.valueOf(code));
+            return false;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+}
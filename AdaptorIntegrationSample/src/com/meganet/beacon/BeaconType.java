@@ -0,0 +1,58 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.beacon;
+
+/**
+ * Kind of an event reported to the Meganet server.
+ */
+public enum BeaconType {
+
+    /**
+     * The ad became visible.
+     */
+    IMPRESSION("impression"),
+
+    /**
+     * The ad stopped being visible, the beacon carries the visible duration.
+     */
+    VIEW_SESSION("view_session"),
+
+    /**
+     * The ad transaction ended, the beacon carries its outcome.
+     */
+    TRANSACTION("transaction");
+
+    /**
+     * Name of the kind sent to the server.
+     */
+    private final String mWireName;
+
+    /**
+     * Constructs new instance.
+     */
+    BeaconType(final String wireName) {
+        mWireName = wireName;
+    }
+
+    /**
+     * Returns the name of the kind sent to the server. Fixed, so it does not depend on the locale or
+     * on renaming the constant.
+     */
+    public String getWireName() {
+        return mWireName;
+    }
+
+}
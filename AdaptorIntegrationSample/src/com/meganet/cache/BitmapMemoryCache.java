@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+/**
+ * Size-bounded in-memory LRU cache of decoded bitmaps.
+ * <p>
+ * The size of the cache is measured in bytes of pixel data. Entries older than the configured time
+ * to live are treated as absent. The cache holds a {@link BitmapPool} reference to every cached
+ * bitmap, so evicted bitmaps can be reused once nobody displays them. A bitmap returned by
+ * {@link #get(String)} comes with a reference of its own, taken under the cache lock, so an eviction
+ * racing with the lookup cannot hand it to the pool while the caller is about to display it.
+ */
+public class BitmapMemoryCache implements Trimmable {
+
+    /**
+     * Cached bitmaps in access order, the eldest entry goes first.
+     */
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Maximum size of the cache in bytes.
+     */
+    private int mMaxBytes;
+
+    /**
+     * Time to live of an entry in milliseconds.
+     */
+    private long mTtl;
+
+    /**
+     * Current size of the cache in bytes.
+     */
+    private int mSizeBytes;
+
+    /**
+     * Cached bitmap with its size and creation time.
+     */
+    private static class Entry {
+
+        /**
+         * Cached bitmap.
+         */
+        final Bitmap mBitmap;
+
+        /**
+         * Size of the bitmap in bytes.
+         */
+        final int mBytes;
+
+        /**
+         * Time the entry was put into the cache.
+         */
+        final long mCreated;
+
+        /**
+         * Constructs new instance.
+         */
+        Entry(final Bitmap bitmap, final long created) {
+            mBitmap = bitmap;
+            mBytes = sizeOf(bitmap);
+            mCreated = created;
+        }
+    }
+
+    /**
+     * Constructs a new {@link BitmapMemoryCache} instance.
+     * 
+     * @param maxBytes maximum size of the cache in bytes
+     * @param ttl time to live of an entry in milliseconds
+     */
+    public BitmapMemoryCache(final int maxBytes, final long ttl) {
+        mMaxBytes = maxBytes;
+        mTtl = ttl;
+    }
+
+    /**
+     * Returns cached bitmap for the specified key or null if there is no valid entry. The caller
+     * receives a {@link BitmapPool} reference to the bitmap and must release it.
+     */
+    public synchronized Bitmap get(final String key) {
+        final Entry entry = mEntries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - entry.mCreated > mTtl) {
+            mEntries.remove(key);
+            mSizeBytes -= entry.mBytes;
+            BitmapPool.getInstance().release(entry.mBitmap);
+            return null;
+        }
+        BitmapPool.getInstance().acquire(entry.mBitmap);
+        return entry.mBitmap;
+    }
+
+    /**
+     * Puts bitmap into the cache evicting the least recently used entries if necessary. Bitmaps
+     * larger than the whole cache are not stored.
+     */
+    public synchronized void put(final String key, final Bitmap bitmap) {
+        final Entry entry = new Entry(bitmap, System.currentTimeMillis());
+        if (entry.mBytes > mMaxBytes) {
+            return;
+        }
+        BitmapPool.getInstance().acquire(bitmap);
+        final Entry previous = mEntries.put(key, entry);
+        if (previous != null) {
+            mSizeBytes -= previous.mBytes;
+            BitmapPool.getInstance().release(previous.mBitmap);
+        }
+        mSizeBytes += entry.mBytes;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Removes all entries whose key ends with the specified suffix.
+     */
+    public synchronized void removeBySuffix(final String suffix) {
+        final Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<String, Entry> next = it.next();
+            if (next.getKey().endsWith(suffix)) {
+                it.remove();
+                mSizeBytes -= next.getValue().mBytes;
+                BitmapPool.getInstance().release(next.getValue().mBitmap);
+            }
+        }
+    }
+
+    /**
+     * Changes the limits of the cache.
+     */
+    public synchronized void setLimits(final int maxBytes, final long ttl) {
+        mMaxBytes = maxBytes;
+        mTtl = ttl;
+        trimToSize(maxBytes);
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits into <code>maxBytes</code>.
+     */
+    @Override
+    public synchronized void trimToSize(final int maxBytes) {
+        final Iterator<Map.Entry<String, Entry>> it = mEntries.entrySet().iterator();
+        while (mSizeBytes > maxBytes && it.hasNext()) {
+            final Entry eldest = it.next().getValue();
+            it.remove();
+            mSizeBytes -= eldest.mBytes;
+            BitmapPool.getInstance().release(eldest.mBitmap);
+        }
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Returns current size of the cache in bytes.
+     */
+    @Override
+    public synchronized int size() {
+        return mSizeBytes;
+    }
+
+    /**
+     * Returns the number of bytes occupied by the bitmap pixels.
+     */
+    public static int sizeOf(final Bitmap bitmap) {
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+}
@@ -0,0 +1,201 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.cache;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Pool of mutable bitmaps which can be reused for decoding through
+ * <code>BitmapFactory.Options.inBitmap</code>.
+ * <p>
+ * Bitmaps are reference counted: the memory cache and every adaptor showing a bitmap hold a
+ * reference to it with {@link #acquire(Bitmap)}. A bitmap goes to the pool only when the last holder
+ * called {@link #release(Bitmap)}, so a bitmap being displayed or cached is never decoded over.
+ * Bitmaps are looked up by exact size and config, the least recently released ones are recycled when
+ * the pool grows beyond its byte limit.
+ */
+public final class BitmapPool implements Trimmable {
+
+    /**
+     * A key for the bitmap pool size in bytes being passed in factory parameters.
+     */
+    public static final String BITMAP_POOL_SIZE = "bitmapPoolSize";
+
+    /**
+     * Default size of the pool in bytes.
+     */
+    private static final int DEFAULT_POOL_SIZE = 2 * 1024 * 1024;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final BitmapPool INSTANCE = new BitmapPool();
+
+    /**
+     * Pooled bitmaps, the least recently released goes first.
+     */
+    private final LinkedList<Bitmap> mBitmaps = new LinkedList<Bitmap>();
+
+    /**
+     * Number of references held to the bitmaps in use.
+     */
+    private final Map<Bitmap, Integer> mReferences = new IdentityHashMap<Bitmap, Integer>();
+
+    /**
+     * Maximum size of the pool in bytes.
+     */
+    private int mMaxBytes = DEFAULT_POOL_SIZE;
+
+    /**
+     * Current size of the pool in bytes.
+     */
+    private int mSizeBytes;
+
+    /**
+     * Non constructable outside.
+     */
+    private BitmapPool() {
+        MemoryGovernor.getInstance().register(this, MemoryGovernor.PRIORITY_SPARE);
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static BitmapPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Specifies whether bitmap reuse is supported on the current platform.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Applies the pool limit from the factory initialization parameters.
+     */
+    public synchronized void configure(final Map<String, ?> params) {
+        mMaxBytes = ParameterUtils.getInt(params, BITMAP_POOL_SIZE, DEFAULT_POOL_SIZE);
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Removes and returns a pooled bitmap of the specified size and config or null if there is none.
+     * Lookups are counted in {@link Counter#BITMAP_POOL_HITS} and {@link Counter#BITMAP_POOL_MISSES}.
+     */
+    public synchronized Bitmap get(final int width, final int height, final Bitmap.Config config) {
+        final Iterator<Bitmap> it = mBitmaps.iterator();
+        while (it.hasNext()) {
+            final Bitmap bitmap = it.next();
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+                it.remove();
+                mSizeBytes -= BitmapMemoryCache.sizeOf(bitmap);
+                AdaptorMetrics.getInstance().increment(Counter.BITMAP_POOL_HITS);
+                return bitmap;
+            }
+        }
+        AdaptorMetrics.getInstance().increment(Counter.BITMAP_POOL_MISSES);
+        return null;
+    }
+
+    /**
+     * Returns a bitmap taken with {@link #get(int, int, Bitmap.Config)} back to the pool, e.g. if
+     * decoding into it failed.
+     */
+    public synchronized void put(final Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled()) {
+            return;
+        }
+        final int size = BitmapMemoryCache.sizeOf(bitmap);
+        if (!bitmap.isMutable() || !isSupported()) {
+            // not reusable, left to the garbage collector
+            MemoryGovernor.getInstance().countFreed(size);
+            return;
+        }
+        if (size > mMaxBytes) {
+            bitmap.recycle();
+            MemoryGovernor.getInstance().countFreed(size);
+            return;
+        }
+        mBitmaps.addLast(bitmap);
+        mSizeBytes += size;
+        trimToSize(mMaxBytes);
+    }
+
+    /**
+     * Adds a reference to the bitmap.
+     */
+    public synchronized void acquire(final Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        final Integer count = mReferences.get(bitmap);
+        mReferences.put(bitmap, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+    }
+
+    /**
+     * Removes a reference to the bitmap. The bitmap is put into the pool when nobody holds it.
+     */
+    public synchronized void release(final Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        final Integer count = mReferences.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count.intValue() > 1) {
+            mReferences.put(bitmap, Integer.valueOf(count.intValue() - 1));
+            return;
+        }
+        mReferences.remove(bitmap);
+        put(bitmap);
+    }
+
+    /**
+     * Recycles the least recently released bitmaps until the pool fits into <code>maxBytes</code>.
+     */
+    @Override
+    public synchronized void trimToSize(final int maxBytes) {
+        while (mSizeBytes > maxBytes && !mBitmaps.isEmpty()) {
+            final Bitmap eldest = mBitmaps.removeFirst();
+            final int size = BitmapMemoryCache.sizeOf(eldest);
+            mSizeBytes -= size;
+            eldest.recycle();
+            MemoryGovernor.getInstance().countFreed(size);
+        }
+    }
+
+    /**
+     * Returns current size of the pool in bytes.
+     */
+    @Override
+    public synchronized int size() {
+        return mSizeBytes;
+    }
+
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.cache;
+
+import java.io.File;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CreativeLookup;
+import com.meganet.pipeline.DecodePreference;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Two-tier creative cache: decoded bitmaps in memory backed by raw creative bytes on disk.
+ * <p>
+ * Decoded bitmaps are keyed by url and target scale, raw bytes are keyed by url only. The disk tier
+ * becomes available only after {@link #setDiskDirectory(File)} was called, until then only the
+ * memory tier is used.
+ */
+public final class CreativeCache implements CreativeLookup {
+
+    /**
+     * A key for the memory cache size in bytes being passed in factory parameters.
+     */
+    public static final String MEMORY_CACHE_SIZE = "memoryCacheSize";
+
+    /**
+     * A key for the disk cache size in bytes being passed in factory parameters.
+     */
+    public static final String DISK_CACHE_SIZE = "diskCacheSize";
+
+    /**
+     * A key for the cache entries time to live in milliseconds being passed in factory parameters.
+     */
+    public static final String CACHE_TTL = "cacheTtl";
+
+    /**
+     * A key for the time in milliseconds after expiration during which a creative may be served while
+     * it is revalidated in the background being passed in factory parameters.
+     */
+    public static final String MAX_STALE = "staleWhileRevalidate";
+
+    /**
+     * Default size of the disk cache in bytes.
+     */
+    private static final long DEFAULT_DISK_CACHE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Default time to live of cached entries (one hour).
+     */
+    private static final long DEFAULT_TTL = 60 * 60 * 1000L;
+
+    /**
+     * Default stale window (one hour).
+     */
+    private static final long DEFAULT_MAX_STALE = 60 * 60 * 1000L;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final CreativeCache INSTANCE = new CreativeCache();
+
+    /**
+     * Decoded bitmaps tier.
+     */
+    private final BitmapMemoryCache mMemoryCache;
+
+    /**
+     * Raw bytes tier. Null until the directory is set.
+     */
+    private DiskCreativeCache mDiskCache;
+
+    /**
+     * Maximum size of the disk tier in bytes.
+     */
+    private long mDiskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+
+    /**
+     * Time to live of cached entries in milliseconds.
+     */
+    private long mTtl = DEFAULT_TTL;
+
+    /**
+     * Stale window of the disk tier in milliseconds.
+     */
+    private long mMaxStale = DEFAULT_MAX_STALE;
+
+    /**
+     * Non constructable outside.
+     */
+    private CreativeCache() {
+        mMemoryCache = new BitmapMemoryCache(defaultMemoryCacheSize(), DEFAULT_TTL);
+        MemoryGovernor.getInstance().register(mMemoryCache, MemoryGovernor.PRIORITY_CACHE);
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static CreativeCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies cache limits from the factory initialization parameters. Absent parameters leave
+     * default values.
+     */
+    public synchronized void configure(final Map<String, ?> params) {
+        final int memoryCacheSize = ParameterUtils.getInt(params, MEMORY_CACHE_SIZE, defaultMemoryCacheSize());
+        mDiskCacheSize = ParameterUtils.getLong(params, DISK_CACHE_SIZE, DEFAULT_DISK_CACHE_SIZE);
+        mTtl = ParameterUtils.getLong(params, CACHE_TTL, DEFAULT_TTL);
+        mMaxStale = ParameterUtils.getLong(params, MAX_STALE, DEFAULT_MAX_STALE);
+        mMemoryCache.setLimits(memoryCacheSize, mTtl);
+        if (mDiskCache != null) {
+            mDiskCache.setLimits(mDiskCacheSize, mTtl, mMaxStale);
+        }
+    }
+
+    /**
+     * Enables the disk tier in the specified directory. Subsequent calls are ignored.
+     * 
+     * @return true if the disk tier was enabled by this call
+     */
+    public synchronized boolean setDiskDirectory(final File directory) {
+        if (mDiskCache == null && directory != null) {
+            mDiskCache = new DiskCreativeCache(directory, mDiskCacheSize, mTtl, mMaxStale);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Loads the disk tier index persisted by the previous process, so the first ad request does not
+     * pay for it. Performs disk IO, so should not be called from the main thread.
+     */
+    public void warmUp() {
+        final DiskCreativeCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            diskCache.warmUp();
+        }
+    }
+
+    /**
+     * Returns decoded bitmap for the specified url, scale, maximum size and decode preference or null
+     * if it is not cached. The caller receives a {@link BitmapPool} reference to the bitmap and must
+     * release it.
+     */
+    public Bitmap getBitmap(final String url, final float scale, final int maxSize,
+        final DecodePreference preference) {
+        return mMemoryCache.get(bitmapKey(url, scale, maxSize, preference));
+    }
+
+    /**
+     * Caches decoded bitmap for the specified url, scale, maximum size and decode preference.
+     */
+    public void putBitmap(final String url, final float scale, final int maxSize, final DecodePreference preference,
+        final Bitmap bitmap) {
+        mMemoryCache.put(bitmapKey(url, scale, maxSize, preference), bitmap);
+    }
+
+    /**
+     * Returns raw creative for the specified url or null if it is not cached. Expired creative is
+     * returned only if it is within the stale window or can be revalidated. Performs disk IO, so should
+     * not be called from the main thread.
+     */
+    @Override
+    public CachedCreative getCreative(final String url) {
+        final DiskCreativeCache diskCache = getDiskCache();
+        return diskCache != null ? diskCache.get(url) : null;
+    }
+
+    /**
+     * Caches raw creative for the specified url along with its HTTP validators. Bitmaps decoded from a
+     * previous copy are dropped from the memory tier. Performs disk IO, so should not be called from the
+     * main thread.
+     */
+    @Override
+    public void putCreative(final String url, final byte[] data, final String eTag, final String lastModified) {
+        mMemoryCache.removeBySuffix(bitmapKeySuffix(url));
+        final DiskCreativeCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            diskCache.put(url, data, eTag, lastModified);
+        }
+    }
+
+    /**
+     * Marks raw creative for the specified url as fresh after it was revalidated by the server.
+     */
+    @Override
+    public void refreshCreative(final String url) {
+        final DiskCreativeCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            diskCache.refresh(url);
+        }
+    }
+
+    /**
+     * Removes raw creative for the specified url, e.g. if it could not be decoded.
+     */
+    @Override
+    public void removeCreative(final String url) {
+        final DiskCreativeCache diskCache = getDiskCache();
+        if (diskCache != null) {
+            diskCache.remove(url);
+        }
+    }
+
+    /**
+     * Returns the disk tier or null if it is not enabled yet.
+     */
+    private synchronized DiskCreativeCache getDiskCache() {
+        return mDiskCache;
+    }
+
+    /**
+     * Builds the memory tier key.
+     */
+    private static String bitmapKey(final String url, final float scale, final int maxSize,
+        final DecodePreference preference) {
+        return scale + "|" + maxSize + "|" + preference + bitmapKeySuffix(url);
+    }
+
+    /**
+     * Builds the common end of the memory tier keys of the url.
+     */
+    private static String bitmapKeySuffix(final String url) {
+        return "|" + url;
+    }
+
+    /**
+     * By default the memory tier takes 1/8 of the available heap.
+     */
+    private static int defaultMemoryCacheSize() {
+        return (int)(Runtime.getRuntime().maxMemory() / 8);
+    }
+
+}
@@ -0,0 +1,506 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.utils.Logger;
+
+/**
+ * On-disk LRU cache of raw creative bytes which survives process restarts.
+ * <p>
+ * Every entry is stored in a separate file named after the MD5 hash of its url. The file starts with
+ * the HTTP validators of the creative followed by the creative bytes. Metadata of all entries (url,
+ * size, store time and validators) is kept in a compact index file rewritten atomically on every
+ * change, so the index can be loaded after a process start without touching the entry files. The
+ * index is loaded lazily on first access or by {@link #warmUp()}; if it is missing or damaged it is
+ * rebuilt from the directory listing.
+ * <p>
+ * Entries older than the configured time to live are returned as expired. Within the stale window
+ * they may still be served while being revalidated in the background; after that they are returned
+ * only if they can be revalidated, otherwise they are deleted on access.
+ */
+public class DiskCreativeCache {
+
+    /**
+     * Suffix of the files being written at the moment.
+     */
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    /**
+     * Name of the index file. Entry files are named by hex digests, so it never clashes with them.
+     */
+    private static final String INDEX_FILE = "index";
+
+    /**
+     * Marks the beginning of a cache file.
+     */
+    private static final int MAGIC = 0x4D474E31;
+
+    /**
+     * Marks the beginning of the index file.
+     */
+    private static final int INDEX_MAGIC = 0x4D474E49;
+
+    /**
+     * Size of the buffer used to read and write cached files.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Directory where the files are stored.
+     */
+    private final File mDirectory;
+
+    /**
+     * File names mapped to the entries in access order, the eldest entry goes first.
+     */
+    private final LinkedHashMap<String, Entry> mIndex = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Maximum size of the cache in bytes.
+     */
+    private long mMaxBytes;
+
+    /**
+     * Time to live of an entry in milliseconds.
+     */
+    private long mTtl;
+
+    /**
+     * Time in milliseconds after expiration during which an entry may be served while it is
+     * revalidated.
+     */
+    private long mMaxStale;
+
+    /**
+     * Current size of the cache in bytes.
+     */
+    private long mSizeBytes;
+
+    /**
+     * Specifies whether the index was loaded.
+     */
+    private boolean mIsIndexLoaded;
+
+    /**
+     * Metadata of a cached creative.
+     */
+    private static class Entry {
+
+        /**
+         * Url of the creative or null if the entry was recovered from the directory listing.
+         */
+        final String mUrl;
+
+        /**
+         * Size of the file in bytes.
+         */
+        final long mSize;
+
+        /**
+         * Time the creative was stored or last revalidated.
+         */
+        long mStoredAt;
+
+        /**
+         * Value of the ETag response header or null.
+         */
+        final String mETag;
+
+        /**
+         * Value of the Last-Modified response header or null.
+         */
+        final String mLastModified;
+
+        /**
+         * Constructs new instance.
+         */
+        Entry(final String url, final long size, final long storedAt, final String eTag, final String lastModified) {
+            mUrl = url;
+            mSize = size;
+            mStoredAt = storedAt;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+    }
+
+    /**
+     * Constructs a new {@link DiskCreativeCache} instance.
+     * 
+     * @param directory directory to store files in
+     * @param maxBytes maximum size of the cache in bytes
+     * @param ttl time to live of an entry in milliseconds
+     * @param maxStale time in milliseconds after expiration during which an entry may be served while
+     *            it is revalidated
+     */
+    public DiskCreativeCache(final File directory, final long maxBytes, final long ttl, final long maxStale) {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        mTtl = ttl;
+        mMaxStale = maxStale;
+    }
+
+    /**
+     * Loads the index unless it is loaded already. Performs disk IO, so should be called from a
+     * background thread, e.g. right after process start.
+     */
+    public synchronized void warmUp() {
+        loadIndex();
+    }
+
+    /**
+     * Returns cached creative for the specified url or null if there is no entry or it has expired,
+     * can not be served stale and can not be revalidated.
+     */
+    public synchronized CachedCreative get(final String url) {
+        loadIndex();
+        final String name = fileName(url);
+        final Entry entry = mIndex.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final long age = System.currentTimeMillis() - entry.mStoredAt;
+        final boolean isExpired = age > mTtl;
+        final boolean isServableStale = isExpired && age <= mTtl + mMaxStale;
+        try {
+            final CachedCreative creative = readFile(new File(mDirectory, name), isExpired, isServableStale);
+            if (isExpired && !isServableStale && !creative.hasValidators()) {
+                removeFile(name);
+                writeIndex();
+                return null;
+            }
+            return creative;
+        }
+        catch (final IOException e) {
+            Logger.logError(this, "Could not read cached creative: {}", e.getMessage());
+            removeFile(name);
+            writeIndex();
+        }
+        return null;
+    }
+
+    /**
+     * Stores creative for the specified url evicting the least recently used entries if necessary.
+     * 
+     * @param url url of the creative
+     * @param data encoded creative
+     * @param eTag value of the ETag response header or null
+     * @param lastModified value of the Last-Modified response header or null
+     */
+    public synchronized void put(final String url, final byte[] data, final String eTag, final String lastModified) {
+        if (data.length > mMaxBytes) {
+            return;
+        }
+        loadIndex();
+        final String name = fileName(url);
+        final File temp = new File(mDirectory, name + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            out.writeInt(MAGIC);
+            out.writeUTF(eTag != null ? eTag : "");
+            out.writeUTF(lastModified != null ? lastModified : "");
+            out.writeInt(data.length);
+            out.write(data);
+            out.close();
+            out = null;
+            final File file = new File(mDirectory, name);
+            if (!temp.renameTo(file)) {
+                throw new IOException("Could not rename " + temp);
+            }
+            final Entry entry = new Entry(url, file.length(), System.currentTimeMillis(), eTag, lastModified);
+            final Entry previous = mIndex.put(name, entry);
+            if (previous != null) {
+                mSizeBytes -= previous.mSize;
+            }
+            mSizeBytes += entry.mSize;
+            trimToSize(mMaxBytes);
+            writeIndex();
+        }
+        catch (final IOException e) {
+            Logger.logError(this, "Could not cache creative: {}", e.getMessage());
+            temp.delete();
+        }
+        finally {
+            closeSilently(out);
+        }
+    }
+
+    /**
+     * Restarts the time to live of the entry for the specified url, e.g. after it was revalidated.
+     */
+    public synchronized void refresh(final String url) {
+        loadIndex();
+        final Entry entry = mIndex.get(fileName(url));
+        if (entry != null) {
+            entry.mStoredAt = System.currentTimeMillis();
+            writeIndex();
+        }
+    }
+
+    /**
+     * Removes the entry for the specified url.
+     */
+    public synchronized void remove(final String url) {
+        loadIndex();
+        removeFile(fileName(url));
+        writeIndex();
+    }
+
+    /**
+     * Changes the limits of the cache.
+     */
+    public synchronized void setLimits(final long maxBytes, final long ttl, final long maxStale) {
+        mMaxBytes = maxBytes;
+        mTtl = ttl;
+        mMaxStale = maxStale;
+        if (mIsIndexLoaded && mSizeBytes > maxBytes) {
+            trimToSize(maxBytes);
+            writeIndex();
+        }
+    }
+
+    /**
+     * Returns current size of the cache in bytes.
+     */
+    public synchronized long size() {
+        loadIndex();
+        return mSizeBytes;
+    }
+
+    /**
+     * Evicts the least recently used entries until the cache fits into <code>maxBytes</code>.
+     */
+    private void trimToSize(final long maxBytes) {
+        final Iterator<Map.Entry<String, Entry>> it = mIndex.entrySet().iterator();
+        while (mSizeBytes > maxBytes && it.hasNext()) {
+            final Map.Entry<String, Entry> eldest = it.next();
+            it.remove();
+            mSizeBytes -= eldest.getValue().mSize;
+            new File(mDirectory, eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Removes the file with the specified name from the index and from the disk.
+     */
+    private void removeFile(final String name) {
+        final Entry entry = mIndex.remove(name);
+        if (entry != null) {
+            mSizeBytes -= entry.mSize;
+        }
+        new File(mDirectory, name).delete();
+    }
+
+    /**
+     * Loads the index from the index file or, if that fails, builds it from the directory listing.
+     */
+    private void loadIndex() {
+        if (mIsIndexLoaded) {
+            return;
+        }
+        mIsIndexLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Logger.logWarning(this, "Could not create cache directory {}", mDirectory);
+            return;
+        }
+        try {
+            readIndex();
+        }
+        catch (final IOException e) {
+            Logger.logInfo(this, "Rebuilding cache index: {}", e.getMessage());
+            mIndex.clear();
+            mSizeBytes = 0;
+            listDirectory();
+        }
+        trimToSize(mMaxBytes);
+        writeIndex();
+    }
+
+    /**
+     * Reads the index file. Files which are not in the index are deleted, they were left by a process
+     * which died before updating the index.
+     */
+    private void readIndex() throws IOException {
+        final File file = new File(mDirectory, INDEX_FILE);
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (in.readInt() != INDEX_MAGIC) {
+                throw new IOException("Unknown format of " + file);
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final String url = in.readUTF();
+                final long size = in.readLong();
+                final long storedAt = in.readLong();
+                final String eTag = in.readUTF();
+                final String lastModified = in.readUTF();
+                mIndex.put(name, new Entry(url.length() > 0 ? url : null, size, storedAt,
+                    eTag.length() > 0 ? eTag : null, lastModified.length() > 0 ? lastModified : null));
+                mSizeBytes += size;
+            }
+        }
+        finally {
+            in.close();
+        }
+        final String[] names = mDirectory.list();
+        if (names != null) {
+            for (final String name : names) {
+                if (!INDEX_FILE.equals(name) && !mIndex.containsKey(name)) {
+                    new File(mDirectory, name).delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the index from the directory listing. Files are ordered by their modification time, so
+     * the oldest ones will be evicted first. Validators are read lazily with the creative.
+     */
+    private void listDirectory() {
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                final long left = lhs.lastModified();
+                final long right = rhs.lastModified();
+                return left < right ? -1 : (left == right ? 0 : 1);
+            }
+
+        });
+        for (final File file : files) {
+            if (file.getName().endsWith(TEMP_SUFFIX) || INDEX_FILE.equals(file.getName())) {
+                file.delete();
+                continue;
+            }
+            mIndex.put(file.getName(), new Entry(null, file.length(), file.lastModified(), null, null));
+            mSizeBytes += file.length();
+        }
+    }
+
+    /**
+     * Rewrites the index file atomically. A failure is not fatal: the index will be rebuilt from the
+     * directory listing after restart.
+     */
+    private void writeIndex() {
+        final File temp = new File(mDirectory, INDEX_FILE + TEMP_SUFFIX);
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE));
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(mIndex.size());
+            for (final Map.Entry<String, Entry> item : mIndex.entrySet()) {
+                final Entry entry = item.getValue();
+                out.writeUTF(item.getKey());
+                out.writeUTF(entry.mUrl != null ? entry.mUrl : "");
+                out.writeLong(entry.mSize);
+                out.writeLong(entry.mStoredAt);
+                out.writeUTF(entry.mETag != null ? entry.mETag : "");
+                out.writeUTF(entry.mLastModified != null ? entry.mLastModified : "");
+            }
+            out.close();
+            out = null;
+            if (!temp.renameTo(new File(mDirectory, INDEX_FILE))) {
+                throw new IOException("Could not rename " + temp);
+            }
+        }
+        catch (final IOException e) {
+            Logger.logWarning(this, "Could not write cache index: {}", e.getMessage());
+            temp.delete();
+        }
+        finally {
+            closeSilently(out);
+        }
+    }
+
+    /**
+     * Reads the cached creative from the file.
+     */
+    private static CachedCreative readFile(final File file, final boolean isExpired, final boolean isServableStale)
+        throws IOException {
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Unknown format of " + file);
+            }
+            final String eTag = in.readUTF();
+            final String lastModified = in.readUTF();
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new CachedCreative(data, eTag.length() > 0 ? eTag : null,
+                lastModified.length() > 0 ? lastModified : null, isExpired, isServableStale);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Closes the stream ignoring any errors.
+     */
+    private static void closeSilently(final OutputStream stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            }
+            catch (final IOException e) {
+                // nothing to do here
+            }
+        }
+    }
+
+    /**
+     * Returns the file name for the specified url.
+     */
+    static String fileName(final String url) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(url.getBytes());
+            final StringBuilder name = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.toString();
+        }
+        catch (final NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,225 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.utils.Logger;
+
+/**
+ * Gives memory held by the library back to the system when it asks for it through
+ * {@link ComponentCallbacks2#onTrimMemory(int)} or {@link ComponentCallbacks2#onLowMemory()}.
+ * <p>
+ * Every holder is registered with a priority telling how cheap it is to rebuild. The trim level is
+ * mapped to a pressure of the same scale: holders of a lower priority than the pressure are dropped,
+ * holders of the same priority are halved and the rest is kept. Spare pooled bitmaps go first,
+ * decoded creatives which can be decoded again from the disk go next and precached interstitials,
+ * which would cost a fetch right when an ad has to be shown, go last. Holders are trimmed from the
+ * highest priority down, so bitmaps they release into the {@link BitmapPool} are trimmed with it.
+ * <p>
+ * Bytes of the bitmaps actually freed by the trim are counted in {@link Counter#BYTES_RECLAIMED}. A
+ * bitmap a holder drops while an adaptor still shows it is not freed and not counted.
+ */
+public final class MemoryGovernor {
+
+    /**
+     * Priority of spare memory kept for reuse only.
+     */
+    public static final int PRIORITY_SPARE = 1;
+
+    /**
+     * Priority of caches which can be rebuilt from the disk.
+     */
+    public static final int PRIORITY_CACHE = 2;
+
+    /**
+     * Priority of creatives prepared to be shown without a fetch.
+     */
+    public static final int PRIORITY_PRECACHE = 3;
+
+    /**
+     * Pressure which drops everything.
+     */
+    private static final int PRESSURE_CRITICAL = PRIORITY_PRECACHE + 1;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final MemoryGovernor INSTANCE = new MemoryGovernor();
+
+    /**
+     * Registered holders, ordered from the highest priority.
+     */
+    private final List<Registration> mRegistrations = new ArrayList<Registration>();
+
+    /**
+     * Total size in bytes of the bitmaps freed by the {@link BitmapPool}. Not guarded by the governor
+     * lock, so the pool never waits for a trim in progress.
+     */
+    private final AtomicLong mFreedBytes = new AtomicLong();
+
+    /**
+     * Specifies whether the callbacks were registered with the application context.
+     */
+    private boolean mIsAttached;
+
+    /**
+     * Registered holder.
+     */
+    private static class Registration {
+
+        /**
+         * Memory holder.
+         */
+        final Trimmable mTrimmable;
+
+        /**
+         * Priority of the holder.
+         */
+        final int mPriority;
+
+        /**
+         * Constructs new instance.
+         */
+        Registration(final Trimmable trimmable, final int priority) {
+            mTrimmable = trimmable;
+            mPriority = priority;
+        }
+
+    }
+
+    /**
+     * Receives memory callbacks from the system. Kept apart from the governor so that the interface,
+     * missing before Ice Cream Sandwich, is only loaded where it exists.
+     */
+    private static class Callbacks implements ComponentCallbacks2 {
+
+        @Override
+        public void onTrimMemory(final int level) {
+            INSTANCE.trim(level);
+        }
+
+        @Override
+        public void onLowMemory() {
+            INSTANCE.trim(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+
+        @Override
+        public void onConfigurationChanged(final Configuration newConfig) {
+            // nothing to do
+        }
+
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private MemoryGovernor() {
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static MemoryGovernor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts receiving memory callbacks of the application. Subsequent calls are ignored.
+     */
+    public synchronized void attach(final Context context) {
+        if (mIsAttached || context == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            return;
+        }
+        final Context application = context.getApplicationContext();
+        (application != null ? application : context).registerComponentCallbacks(new Callbacks());
+        mIsAttached = true;
+    }
+
+    /**
+     * Registers the memory holder. Holders live as long as the process, so are never unregistered.
+     * 
+     * @param trimmable memory holder
+     * @param priority one of the <code>PRIORITY_</code> constants
+     */
+    public synchronized void register(final Trimmable trimmable, final int priority) {
+        int index = 0;
+        while (index < mRegistrations.size() && mRegistrations.get(index).mPriority >= priority) {
+            index++;
+        }
+        mRegistrations.add(index, new Registration(trimmable, priority));
+    }
+
+    /**
+     * Trims the registered holders for the trim level.
+     * 
+     * @param level one of the <code>ComponentCallbacks2.TRIM_MEMORY_</code> constants
+     * @return number of bytes freed
+     */
+    public synchronized long trim(final int level) {
+        final int pressure = getPressure(level);
+        final long freedBefore = mFreedBytes.get();
+        for (final Registration registration : mRegistrations) {
+            final Trimmable trimmable = registration.mTrimmable;
+            if (registration.mPriority < pressure) {
+                trimmable.trimToSize(0);
+            } else if (registration.mPriority == pressure) {
+                trimmable.trimToSize(trimmable.size() / 2);
+            }
+        }
+        final long reclaimed = mFreedBytes.get() - freedBefore;
+        AdaptorMetrics.getInstance().increment(Counter.MEMORY_TRIMS);
+        AdaptorMetrics.getInstance().add(Counter.BYTES_RECLAIMED, reclaimed);
+        Logger.logDebug(this, "Trim level {} reclaimed {}B", Integer.valueOf(level), Long.valueOf(reclaimed));
+        return reclaimed;
+    }
+
+    /**
+     * Counts a bitmap the pool recycled or, as it cannot be reused, left to the garbage collector once
+     * nobody held it. Bitmaps still referenced are never freed, so never counted.
+     */
+    void countFreed(final int bytes) {
+        mFreedBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Maps the trim level to the pressure.
+     */
+    private static int getPressure(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+            || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return PRESSURE_CRITICAL;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            // running low, ui hidden or on the background list
+            return PRIORITY_PRECACHE;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return PRIORITY_CACHE;
+        }
+        return PRIORITY_SPARE - 1;
+    }
+
+}
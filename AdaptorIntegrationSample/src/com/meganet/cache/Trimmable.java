@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.cache;
+
+/**
+ * Holder of memory which can be given back to the system, registered with {@link MemoryGovernor}.
+ */
+public interface Trimmable {
+
+    /**
+     * Returns current size of the held memory in bytes.
+     */
+    int size();
+
+    /**
+     * Drops held memory until the holder fits into <code>maxBytes</code>.
+     */
+    void trimToSize(int maxBytes);
+
+}
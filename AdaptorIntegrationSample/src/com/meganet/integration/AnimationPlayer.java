@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.integration;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Movie;
+import android.graphics.drawable.BitmapDrawable;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+import android.widget.ImageView;
+
+import com.meganet.cache.BitmapPool;
+
+/**
+ * Plays an animated creative in an {@link ImageView}.
+ * <p>
+ * Frames are drawn from the {@link Movie}, which decodes them on demand, into a ring of a few frame
+ * buffers taken from the {@link BitmapPool}: one is on the screen, one may still be read by the
+ * renderer and the next frame is drawn into the third. Memory use is therefore bounded by the size
+ * of one frame regardless of the number of frames. Frames are drawn on the display frame clock,
+ * throttled to {@link #MIN_FRAME_INTERVAL}, and only while the player is started and not paused.
+ * All methods must be called on the main thread.
+ */
+final class AnimationPlayer {
+
+    /**
+     * Number of frame buffers.
+     */
+    private static final int RING_SIZE = 3;
+
+    /**
+     * Minimum time in milliseconds between drawn frames, GIF frames are rarely shorter.
+     */
+    private static final int MIN_FRAME_INTERVAL = 20;
+
+    /**
+     * View showing the animation.
+     */
+    private final ImageView mImageView;
+
+    /**
+     * Animation decoding its frames on demand.
+     */
+    private final Movie mMovie;
+
+    /**
+     * First frame, shown again when the player is released.
+     */
+    private final Bitmap mFirstFrame;
+
+    /**
+     * Frame buffers.
+     */
+    private final Bitmap[] mFrames = new Bitmap[RING_SIZE];
+
+    /**
+     * Drawables of the frame buffers, created once to keep the frame path free of allocations.
+     */
+    private final BitmapDrawable[] mDrawables = new BitmapDrawable[RING_SIZE];
+
+    /**
+     * Canvas drawing into the frame buffers.
+     */
+    private final Canvas mCanvas = new Canvas();
+
+    /**
+     * Scale from the animation size to the frame buffer size.
+     */
+    private final float mScale;
+
+    /**
+     * Display frame clock on Jelly Bean and later, null otherwise.
+     */
+    private final FrameClock mFrameClock;
+
+    /**
+     * Frame clock fallback for older platforms.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Draws a frame on older platforms.
+     */
+    private final Runnable mTick = new Runnable() {
+
+        @Override
+        public void run() {
+            onFrame(SystemClock.uptimeMillis());
+        }
+
+    };
+
+    /**
+     * Index of the buffer on the screen.
+     */
+    private int mCurrent = -1;
+
+    /**
+     * Played time of the animation in milliseconds.
+     */
+    private long mPosition;
+
+    /**
+     * {@link SystemClock#uptimeMillis()} of the previous tick or 0 after a pause.
+     */
+    private long mLastTick;
+
+    /**
+     * {@link SystemClock#uptimeMillis()} of the last drawn frame.
+     */
+    private long mLastFrame;
+
+    /**
+     * Specifies whether the animation is running.
+     */
+    private boolean mIsRunning;
+
+    /**
+     * Specifies whether the player was released.
+     */
+    private boolean mIsReleased;
+
+    /**
+     * Display frame clock. Kept apart so that Choreographer, missing before Jelly Bean, is only loaded
+     * where it exists.
+     */
+    private class FrameClock implements Choreographer.FrameCallback {
+
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            onFrame(frameTimeNanos / 1000000);
+        }
+
+        /**
+         * Requests a callback on the next display frame.
+         */
+        void post() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        /**
+         * Cancels the pending callback.
+         */
+        void cancel() {
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+    }
+
+    /**
+     * Constructs new instance.
+     * 
+     * @param imageView view showing the first frame
+     * @param movie animation
+     * @param firstFrame decoded first frame, the frames are drawn at its size
+     */
+    AnimationPlayer(final ImageView imageView, final Movie movie, final Bitmap firstFrame) {
+        mImageView = imageView;
+        mMovie = movie;
+        mFirstFrame = firstFrame;
+        mScale = (float)firstFrame.getWidth() / movie.width();
+        mFrameClock = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN ? new FrameClock() : null;
+    }
+
+    /**
+     * Starts or resumes the animation.
+     */
+    void start() {
+        if (mIsRunning || mIsReleased) {
+            return;
+        }
+        mIsRunning = true;
+        mLastTick = 0;
+        scheduleFrame();
+    }
+
+    /**
+     * Pauses the animation keeping its position. The frame buffers are kept for the resume.
+     */
+    void pause() {
+        if (!mIsRunning) {
+            return;
+        }
+        mIsRunning = false;
+        if (mFrameClock != null) {
+            mFrameClock.cancel();
+        } else {
+            mHandler.removeCallbacks(mTick);
+        }
+    }
+
+    /**
+     * Stops the animation, shows the first frame again and returns the frame buffers to the pool.
+     */
+    void release() {
+        pause();
+        mIsReleased = true;
+        if (mCurrent >= 0) {
+            mImageView.setImageBitmap(mFirstFrame);
+        }
+        for (int i = 0; i < RING_SIZE; i++) {
+            if (mFrames[i] != null) {
+                BitmapPool.getInstance().put(mFrames[i]);
+                mFrames[i] = null;
+                mDrawables[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Requests the next tick of the frame clock.
+     */
+    private void scheduleFrame() {
+        if (mFrameClock != null) {
+            mFrameClock.post();
+        } else {
+            mHandler.postDelayed(mTick, MIN_FRAME_INTERVAL);
+        }
+    }
+
+    /**
+     * Advances the animation and draws the frame if it is time to.
+     * 
+     * @param now frame time in milliseconds
+     */
+    void onFrame(final long now) {
+        if (!mIsRunning) {
+            return;
+        }
+        if (mLastTick != 0) {
+            mPosition += now - mLastTick;
+        }
+        mLastTick = now;
+        if (now - mLastFrame >= MIN_FRAME_INTERVAL) {
+            mLastFrame = now;
+            drawFrame();
+        }
+        scheduleFrame();
+    }
+
+    /**
+     * Draws the current frame into the next buffer and shows it.
+     */
+    private void drawFrame() {
+        final int next = (mCurrent + 1) % RING_SIZE;
+        if (mFrames[next] == null) {
+            final int width = mFirstFrame.getWidth();
+            final int height = mFirstFrame.getHeight();
+            Bitmap frame = BitmapPool.getInstance().get(width, height, Bitmap.Config.ARGB_8888);
+            if (frame == null) {
+                frame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            }
+            mFrames[next] = frame;
+            mDrawables[next] = new BitmapDrawable(mImageView.getResources(), frame);
+        }
+        mMovie.setTime((int)(mPosition % mMovie.duration()));
+        final Bitmap frame = mFrames[next];
+        frame.eraseColor(0);
+        mCanvas.setBitmap(frame);
+        mCanvas.save();
+        mCanvas.scale(mScale, mScale);
+        mMovie.draw(mCanvas, 0, 0);
+        mCanvas.restore();
+        mImageView.setImageDrawable(mDrawables[next]);
+        mCurrent = next;
+    }
+
+}
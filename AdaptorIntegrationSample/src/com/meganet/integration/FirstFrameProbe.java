@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.integration;
+
+import android.content.Context;
+import android.os.Build;
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+import android.view.ViewTreeObserver;
+import android.view.WindowManager;
+
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.metrics.Phase;
+
+/**
+ * Records the time from the moment a creative is about to appear to its first frame, i.e. to the
+ * moment the view is about to be drawn for the first time.
+ * <p>
+ * On Jelly Bean and later the intervals of the frames following the first one are recorded as
+ * well, as {@link Phase#FRAME} latencies and {@link Counter#DROPPED_FRAMES}, so the jank caused by a
+ * new creative is visible in {@link AdaptorMetrics}. Dropped frames are counted against the refresh
+ * rate of the display the view is shown on.
+ */
+class FirstFrameProbe implements ViewTreeObserver.OnPreDrawListener {
+
+    /**
+     * Number of frame intervals recorded after the first frame.
+     */
+    private static final int FRAME_WINDOW = 30;
+
+    /**
+     * Refresh rate assumed if the display does not report one.
+     */
+    private static final float DEFAULT_REFRESH_RATE = 60;
+
+    /**
+     * Observed view.
+     */
+    private final View mView;
+
+    /**
+     * {@link System#nanoTime()} of the moment the creative is about to appear.
+     */
+    private final long mStart;
+
+    /**
+     * Phase recording the time to the first frame.
+     */
+    private final Phase mPhase;
+
+    /**
+     * Nominal frame interval of the display in microseconds.
+     */
+    private final long mFrameMicros;
+
+    /**
+     * Records frame intervals following the first frame.
+     */
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+
+        /**
+         * Nominal frame interval of the display in microseconds.
+         */
+        private final long mFrameMicros;
+
+        /**
+         * Frame time in nanoseconds of the previous frame or 0 before the first one.
+         */
+        private long mLastFrame;
+
+        /**
+         * Number of intervals left to record.
+         */
+        private int mRemaining = FRAME_WINDOW;
+
+        /**
+         * Constructs new instance.
+         */
+        FrameRecorder(final long frameMicros) {
+            mFrameMicros = frameMicros;
+        }
+
+        @Override
+        public void doFrame(final long frameTimeNanos) {
+            if (mLastFrame != 0) {
+                final long micros = (frameTimeNanos - mLastFrame) / 1000;
+                final AdaptorMetrics metrics = AdaptorMetrics.getInstance();
+                metrics.record(Phase.FRAME, micros);
+                // the interval rounded to whole frames less the expected one
+                final long dropped = (micros + mFrameMicros / 2) / mFrameMicros - 1;
+                if (dropped > 0) {
+                    metrics.add(Counter.DROPPED_FRAMES, dropped);
+                }
+                mRemaining--;
+            }
+            mLastFrame = frameTimeNanos;
+            if (mRemaining > 0) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+
+    }
+
+    /**
+     * Constructs new instance.
+     */
+    private FirstFrameProbe(final View view, final long start, final Phase phase, final long frameMicros) {
+        mView = view;
+        mStart = start;
+        mPhase = phase;
+        mFrameMicros = frameMicros;
+    }
+
+    /**
+     * Starts observing the view. Must be called on the UI thread.
+     * 
+     * @param view view showing the creative
+     * @param start {@link System#nanoTime()} of the moment the creative is about to appear, e.g. of
+     *        the show request of an interstitial
+     * @param phase phase recording the time to the first frame
+     */
+    static void attach(final View view, final long start, final Phase phase) {
+        view.getViewTreeObserver().addOnPreDrawListener(
+            new FirstFrameProbe(view, start, phase, getFrameMicros(view.getContext())));
+    }
+
+    /**
+     * Returns the nominal frame interval in microseconds of the default display of the window.
+     */
+    private static long getFrameMicros(final Context context) {
+        final WindowManager windowManager = (WindowManager)context.getSystemService(Context.WINDOW_SERVICE);
+        final Display display = windowManager != null ? windowManager.getDefaultDisplay() : null;
+        float refreshRate = display != null ? display.getRefreshRate() : 0;
+        if (refreshRate < 1) {
+            refreshRate = DEFAULT_REFRESH_RATE;
+        }
+        return Math.round(1000000 / refreshRate);
+    }
+
+    @Override
+    public boolean onPreDraw() {
+        AdaptorMetrics.getInstance().record(mPhase, (System.nanoTime() - mStart) / 1000);
+        final ViewTreeObserver observer = mView.getViewTreeObserver();
+        if (observer.isAlive()) {
+            observer.removeOnPreDrawListener(this);
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            Choreographer.getInstance().postFrameCallback(new FrameRecorder(mFrameMicros));
+        }
+        return true;
+    }
+
+}
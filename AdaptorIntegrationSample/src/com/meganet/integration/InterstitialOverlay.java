@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.integration;
+
+import android.app.Activity;
+import android.content.Context;
+import android.graphics.Color;
+import android.os.Build;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.view.Window;
+import android.widget.FrameLayout;
+import android.widget.ImageView;
+
+/**
+ * Shows an interstitial as a full screen overlay on top of the current activity.
+ * <p>
+ * No activity is launched, so the interstitial is drawn in the next frame of the window which is
+ * already on the screen. The overlay is dismissed with the back key or together with the activity;
+ * either way {@link MeganetAdaptor#interstitialDismissed(InterstitialSession)} is called once it
+ * leaves the window.
+ */
+final class InterstitialOverlay implements View.OnKeyListener {
+
+    /**
+     * Full screen container added to the activity decor view.
+     */
+    private final FrameLayout mContainer;
+
+    /**
+     * Interstitial session.
+     */
+    private final InterstitialSession mSession;
+
+    /**
+     * Interstitial view.
+     */
+    private final ImageView mImageView;
+
+    /**
+     * Reports the overlay removal. Kept apart from the overlay so that the interface, missing before
+     * Honeycomb MR1, is only loaded where it exists.
+     */
+    private class DetachListener implements View.OnAttachStateChangeListener {
+
+        @Override
+        public void onViewAttachedToWindow(final View view) {
+            // nothing to do here
+        }
+
+        @Override
+        public void onViewDetachedFromWindow(final View view) {
+            mContainer.removeOnAttachStateChangeListener(this);
+            MeganetAdaptor.interstitialDismissed(mSession);
+        }
+
+    }
+
+    /**
+     * Constructs new instance.
+     */
+    private InterstitialOverlay(final Context context, final InterstitialSession session, final ImageView imageView) {
+        mSession = session;
+        mImageView = imageView;
+        mContainer = new FrameLayout(context);
+        mContainer.setBackgroundColor(Color.BLACK);
+        // the overlay takes all the touches and the back key
+        mContainer.setClickable(true);
+        mContainer.setFocusableInTouchMode(true);
+        mContainer.setOnKeyListener(this);
+        mContainer.addOnAttachStateChangeListener(new DetachListener());
+        mImageView.setScaleType(ImageView.ScaleType.FIT_CENTER);
+        mContainer.addView(mImageView, new FrameLayout.LayoutParams(FrameLayout.LayoutParams.MATCH_PARENT,
+            FrameLayout.LayoutParams.MATCH_PARENT));
+    }
+
+    /**
+     * Shows the interstitial on top of the activity.
+     * 
+     * @param context context of the adaptor
+     * @param session interstitial session, its view is taken by the overlay when it is shown
+     * @return false if the context is not a visible activity or the platform does not report the
+     *         overlay removal, the interstitial activity should be used then
+     */
+    static boolean show(final Context context, final InterstitialSession session) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1 || !(context instanceof Activity)
+            || ((Activity)context).isFinishing()) {
+            return false;
+        }
+        final Window window = ((Activity)context).getWindow();
+        final View decor = window != null ? window.getDecorView() : null;
+        if (!(decor instanceof ViewGroup)) {
+            return false;
+        }
+        final ImageView imageView = session.claimView();
+        if (imageView == null) {
+            return false;
+        }
+        final InterstitialOverlay overlay = new InterstitialOverlay(context, session, imageView);
+        ((ViewGroup)decor).addView(overlay.mContainer, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+            ViewGroup.LayoutParams.MATCH_PARENT));
+        overlay.mContainer.requestFocus();
+        return true;
+    }
+
+    @Override
+    public boolean onKey(final View view, final int keyCode, final KeyEvent event) {
+        if (keyCode != KeyEvent.KEYCODE_BACK) {
+            return false;
+        }
+        if (event.getAction() == KeyEvent.ACTION_UP) {
+            final ViewGroup parent = (ViewGroup)mContainer.getParent();
+            if (parent != null) {
+                parent.removeView(mContainer);
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.integration;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.widget.ImageView;
+
+/**
+ * Show of an interstitial. Only one interstitial is shown in the process at a time, whichever
+ * adaptor or zone it comes from.
+ * <p>
+ * A session goes from {@link State#PREPARING} when the show is requested to {@link State#SHOWING}
+ * once the overlay is added or the activity is started, and to {@link State#DISMISSED} when it leaves
+ * the screen or fails to start. The current session is held in an atomic reference and both the
+ * reference and the state change with compare-and-set only, so concurrent adaptors never show two
+ * interstitials, a show request is rejected only while another session is really live and a session
+ * is dismissed exactly once.
+ */
+final class InterstitialSession {
+
+    /**
+     * State of the session.
+     */
+    enum State {
+
+        /**
+         * The show was requested, the overlay or the activity is being started.
+         */
+        PREPARING,
+
+        /**
+         * The interstitial is on the screen.
+         */
+        SHOWING,
+
+        /**
+         * The interstitial left the screen or failed to show. Final state.
+         */
+        DISMISSED
+
+    }
+
+    /**
+     * Live session of the process or null if no interstitial is shown.
+     */
+    private static final AtomicReference<InterstitialSession> CURRENT = new AtomicReference<InterstitialSession>();
+
+    /**
+     * State of the session.
+     */
+    private final AtomicReference<State> mState = new AtomicReference<State>(State.PREPARING);
+
+    /**
+     * Specifies whether the view was taken by the interstitial activity.
+     */
+    private final AtomicBoolean mIsClaimed = new AtomicBoolean();
+
+    /**
+     * Interstitial view.
+     */
+    private final ImageView mImageView;
+
+    /**
+     * {@link System#nanoTime()} of the show request.
+     */
+    private final long mStart;
+
+    /**
+     * Constructs new instance.
+     */
+    private InterstitialSession(final ImageView imageView) {
+        mImageView = imageView;
+        mStart = System.nanoTime();
+    }
+
+    /**
+     * Starts a session for the view unless another one is live.
+     * 
+     * @return new session in {@link State#PREPARING} or null if an interstitial is being shown
+     */
+    static InterstitialSession begin(final ImageView imageView) {
+        final InterstitialSession session = new InterstitialSession(imageView);
+        while (true) {
+            final InterstitialSession current = CURRENT.get();
+            // a dismissed session is about to clear the reference itself
+            if (current != null && current.getState() != State.DISMISSED) {
+                return null;
+            }
+            if (CURRENT.compareAndSet(current, session)) {
+                return session;
+            }
+        }
+    }
+
+    /**
+     * Returns live session of the process or null.
+     */
+    static InterstitialSession current() {
+        final InterstitialSession current = CURRENT.get();
+        return current != null && current.getState() != State.DISMISSED ? current : null;
+    }
+
+    /**
+     * Moves the session from {@link State#PREPARING} to {@link State#SHOWING}.
+     * 
+     * @return false if the session has been dismissed meanwhile
+     */
+    boolean markShowing() {
+        return mState.compareAndSet(State.PREPARING, State.SHOWING);
+    }
+
+    /**
+     * Moves the session to {@link State#DISMISSED} and lets another one begin.
+     * 
+     * @return true if this call dismissed the session, false if it was dismissed before
+     */
+    boolean dismiss() {
+        State state;
+        do {
+            state = mState.get();
+            if (state == State.DISMISSED) {
+                return false;
+            }
+        } while (!mState.compareAndSet(state, State.DISMISSED));
+        CURRENT.compareAndSet(this, null);
+        return true;
+    }
+
+    /**
+     * Hands the view over to the overlay or the interstitial activity. Only the first call gets it, so
+     * an activity recreated by the system or an adaptor destroyed before its activity was created can
+     * tell the view has an owner.
+     * 
+     * @return view or null if it was taken before
+     */
+    ImageView claimView() {
+        return mIsClaimed.compareAndSet(false, true) ? mImageView : null;
+    }
+
+    /**
+     * Returns state of the session.
+     */
+    State getState() {
+        return mState.get();
+    }
+
+    /**
+     * Returns interstitial view.
+     */
+    ImageView getImageView() {
+        return mImageView;
+    }
+
+    /**
+     * Returns {@link System#nanoTime()} of the show request.
+     */
+    long getStart() {
+        return mStart;
+    }
+
+}
@@ -0,0 +1,257 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.integration;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+
+import com.meganet.cache.BitmapPool;
+import com.meganet.cache.MemoryGovernor;
+import com.meganet.cache.Trimmable;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Process-wide inventory of precached interstitial creatives.
+ * <p>
+ * Up to the configured number of decoded creatives are kept per zone, each one valid until its
+ * expiry time. When the total size of the stored bitmaps exceeds the memory budget, expired creatives
+ * are evicted first and then the least recently stored ones. The store holds a {@link BitmapPool}
+ * reference to every stored bitmap; {@link #take(String)} hands that reference over to the caller.
+ */
+final class InterstitialStore implements Trimmable {
+
+    /**
+     * A key for the number of precached interstitials per zone being passed in factory parameters.
+     */
+    static final String INTERSTITIAL_SLOTS = "interstitialSlots";
+
+    /**
+     * A key for the precached interstitial time to live in milliseconds being passed in factory
+     * parameters.
+     */
+    static final String INTERSTITIAL_TTL = "interstitialTtl";
+
+    /**
+     * A key for the memory budget of precached interstitials in bytes being passed in factory
+     * parameters.
+     */
+    static final String INTERSTITIAL_BUDGET = "interstitialBudget";
+
+    /**
+     * Default number of precached interstitials per zone.
+     */
+    private static final int DEFAULT_SLOTS = 2;
+
+    /**
+     * Default time to live of a precached interstitial (30 minutes).
+     */
+    private static final long DEFAULT_TTL = 30 * 60 * 1000L;
+
+    /**
+     * Default memory budget in bytes.
+     */
+    private static final int DEFAULT_BUDGET = 8 * 1024 * 1024;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final InterstitialStore INSTANCE = new InterstitialStore();
+
+    /**
+     * Stored creatives of all zones, the least recently stored goes first.
+     */
+    private final LinkedList<Entry> mEntries = new LinkedList<Entry>();
+
+    /**
+     * Maximum number of creatives per zone.
+     */
+    private int mSlots = DEFAULT_SLOTS;
+
+    /**
+     * Time to live of a creative in milliseconds.
+     */
+    private long mTtl = DEFAULT_TTL;
+
+    /**
+     * Memory budget in bytes.
+     */
+    private int mBudget = DEFAULT_BUDGET;
+
+    /**
+     * Current size of the stored bitmaps in bytes.
+     */
+    private int mSizeBytes;
+
+    /**
+     * Stored creative.
+     */
+    private static class Entry {
+
+        /**
+         * Zone the creative was precached for.
+         */
+        final String mZone;
+
+        /**
+         * Decoded creative.
+         */
+        final Bitmap mBitmap;
+
+        /**
+         * Time after which the creative must not be shown.
+         */
+        final long mExpiry;
+
+        /**
+         * Size of the bitmap in bytes.
+         */
+        final int mBytes;
+
+        /**
+         * Constructs new instance.
+         */
+        Entry(final String zone, final Bitmap bitmap, final long expiry) {
+            mZone = zone;
+            mBitmap = bitmap;
+            mExpiry = expiry;
+            mBytes = bitmap.getRowBytes() * bitmap.getHeight();
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private InterstitialStore() {
+        MemoryGovernor.getInstance().register(this, MemoryGovernor.PRIORITY_PRECACHE);
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    static InterstitialStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies limits from the factory initialization parameters.
+     */
+    synchronized void configure(final Map<String, ?> params) {
+        mSlots = Math.max(1, ParameterUtils.getInt(params, INTERSTITIAL_SLOTS, DEFAULT_SLOTS));
+        mTtl = ParameterUtils.getLong(params, INTERSTITIAL_TTL, DEFAULT_TTL);
+        mBudget = ParameterUtils.getInt(params, INTERSTITIAL_BUDGET, DEFAULT_BUDGET);
+        trimToSize(mBudget);
+    }
+
+    /**
+     * Stores the creative for the zone. The oldest creative of the zone is evicted if all its slots
+     * are taken.
+     * 
+     * @return false if the creative does not fit into the memory budget
+     */
+    synchronized boolean put(final String zone, final Bitmap bitmap) {
+        final Entry entry = new Entry(zone, bitmap, System.currentTimeMillis() + mTtl);
+        if (entry.mBytes > mBudget) {
+            return false;
+        }
+        int count = 0;
+        Entry oldest = null;
+        for (final Entry stored : mEntries) {
+            if (stored.mZone.equals(zone)) {
+                count++;
+                if (oldest == null) {
+                    oldest = stored;
+                }
+            }
+        }
+        if (count >= mSlots) {
+            remove(oldest);
+        }
+        BitmapPool.getInstance().acquire(bitmap);
+        mEntries.addLast(entry);
+        mSizeBytes += entry.mBytes;
+        trimToSize(mBudget);
+        return true;
+    }
+
+    /**
+     * Removes and returns the most recently stored valid creative of the zone. The caller takes over
+     * the {@link BitmapPool} reference and should release it when the creative is not needed anymore.
+     * 
+     * @return creative or null if there is none
+     */
+    synchronized Bitmap take(final String zone) {
+        evictExpired();
+        final Iterator<Entry> it = mEntries.descendingIterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.mZone.equals(zone)) {
+                it.remove();
+                mSizeBytes -= entry.mBytes;
+                return entry.mBitmap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Evicts creatives until the store fits into <code>maxBytes</code>. Expired creatives go first,
+     * then the least recently stored ones.
+     */
+    @Override
+    public synchronized void trimToSize(final int maxBytes) {
+        evictExpired();
+        while (mSizeBytes > maxBytes && !mEntries.isEmpty()) {
+            remove(mEntries.getFirst());
+        }
+    }
+
+    /**
+     * Returns current size of the stored bitmaps in bytes.
+     */
+    @Override
+    public synchronized int size() {
+        return mSizeBytes;
+    }
+
+    /**
+     * Evicts expired creatives.
+     */
+    private void evictExpired() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Entry> it = mEntries.iterator();
+        while (it.hasNext()) {
+            final Entry entry = it.next();
+            if (entry.mExpiry < now) {
+                it.remove();
+                mSizeBytes -= entry.mBytes;
+                BitmapPool.getInstance().release(entry.mBitmap);
+            }
+        }
+    }
+
+    /**
+     * Evicts the entry.
+     */
+    private void remove(final Entry entry) {
+        mEntries.remove(entry);
+        mSizeBytes -= entry.mBytes;
+        BitmapPool.getInstance().release(entry.mBitmap);
+    }
+
+}
@@ -17,18 +17,43 @@ package com.meganet.integration;
 
 import java.lang.ref.Reference;
 import java.lang.ref.WeakReference;
+import java.util.List;
 import java.util.Map;
 
 import android.content.ActivityNotFoundException;
 import android.content.Context;
 import android.content.Intent;
 import android.graphics.Bitmap;
+import android.graphics.Movie;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
 import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.SystemClock;
+import android.util.DisplayMetrics;
+import android.util.Log;
 import android.view.View;
+import android.view.View.MeasureSpec;
 import android.widget.ImageView;
 
+import com.meganet.beacon.Beacon;
+import com.meganet.beacon.BeaconQueue;
+import com.meganet.cache.BitmapPool;
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.metrics.Phase;
+import com.meganet.network.BitmapFetchRegistry;
 import com.meganet.network.BitmapFetchTask;
-import com.meganet.network.IBitmapFetchListener;
+import com.meganet.network.ClickResolver;
+import com.meganet.network.CreativeHttpClient;
+import com.meganet.network.IAnimationFetchListener;
+import com.meganet.pipeline.CreativeVariant;
+import com.meganet.pipeline.DecodePreference;
+import com.meganet.pipeline.FetchPriority;
+import com.meganet.pipeline.ThroughputEstimator;
+import com.meganet.pipeline.VariantSelector;
 import com.meganet.utils.Logger;
 
 import com.burstly.lib.component.IBurstlyAdaptor;
@@ -45,14 +70,9 @@ import com.burstly.lib.ui.BurstlyView;
 public class MeganetAdaptor implements IBurstlyAdaptor {
 
     /**
-     * Interstitial image view.
+     * Click url used when the server does not send one.
      */
-    static ImageView sInterstitialView;
-
-    /**
-     * Flag that shiws
-     */
-    static boolean sIsShowingNow;
+    private static final String DEFAULT_CLICK_URL = "http://burstly.com";
 
     /**
      * Currents context. Strong reference is safe, because adaptors are being destroyed on
@@ -65,6 +85,12 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
      */
     private String mAdaptorName;
 
+    /**
+     * Zone of the adaptor, i.e. id of the BurstlyView it serves. Precached interstitials are stored
+     * per zone.
+     */
+    private final String mZone;
+
     /**
      * Listener used to inform BurstlySDK about the state of the integrated library.
      */
@@ -86,20 +112,120 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
      */
     boolean mIsPrecacheInterstitial;
 
+    /**
+     * Specifies whether current banner is precached by Burstly SDK and shown with a later request.
+     */
+    boolean mIsPrecacheBanner;
+
     /**
      * URL of the image that should be fetched and displayed.
      */
     private String mImageUrl;
 
+    /**
+     * Display density the image is drawn for.
+     */
+    private float mImageDensity = 1;
+
+    /**
+     * Time in milliseconds the image fetch should fit into when the server offers several variants.
+     */
+    private long mVariantLatencyTarget;
+
+    /**
+     * URL opened when the ad is clicked.
+     */
+    String mClickUrl = DEFAULT_CLICK_URL;
+
     /**
      * Image view that will display the fetched image.
      */
     ImageView mImageView;
 
     /**
-     * Used to fetch the bitmap.
+     * Image view created ahead of the next ad request while the UI thread was idle or null.
+     */
+    private ImageView mSpareView;
+
+    /**
+     * Creates {@link #mSpareView} when the UI thread becomes idle. Null if it is not scheduled.
+     * Volatile, as the adaptor may be destroyed off the UI thread.
+     */
+    private volatile MessageQueue.IdleHandler mViewPreparation;
+
+    /**
+     * Message queue of the UI thread {@link #mViewPreparation} is added to. Kept, so the preparation is
+     * cancelled from the right queue whichever thread cancels it.
+     */
+    private volatile MessageQueue mViewPreparationQueue;
+
+    /**
+     * Bitmap displayed by the banner image view. A {@link BitmapPool} reference is held to it until
+     * the banner is replaced or the adaptor is destroyed.
+     */
+    Bitmap mBitmap;
+
+    /**
+     * Pending request for the bitmap.
+     */
+    private BitmapFetchRegistry.Request mRequest;
+
+    /**
+     * Specifies whether the creative should be fetched as soon as the transaction starts.
+     */
+    private boolean mIsEagerPrefetch;
+
+    /**
+     * Specifies whether interstitials should be shown as an overlay of the current activity when
+     * possible.
+     */
+    private boolean mIsOverlayEnabled = true;
+
+    /**
+     * Pending eager prefetch request started in {@link #startTransaction(Map)}.
+     */
+    BitmapFetchRegistry.Request mPrefetchRequest;
+
+    /**
+     * Bitmap fetched by the eager prefetch and not yet handed to the ad view. A {@link BitmapPool}
+     * reference is held to it.
+     */
+    Bitmap mPrefetchedBitmap;
+
+    /**
+     * Animation of the prefetched creative or null if it is static.
+     */
+    Movie mPrefetchedAnimation;
+
+    /**
+     * Plays the animated banner creative. Null if the creative is static.
+     */
+    private AnimationPlayer mAnimationPlayer;
+
+    /**
+     * Used to deliver the prefetched bitmap asynchronously.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Delivers the prefetched bitmap to the ad view. Null if there is no pending delivery.
+     */
+    private Runnable mPrefetchDelivery;
+
+    /**
+     * Bitmap of the pending delivery. A {@link BitmapPool} reference is held to it.
+     */
+    private Bitmap mDeliveredBitmap;
+
+    /**
+     * {@link System#nanoTime()} of the pending ad request or 0 if there is none.
+     */
+    private long mRequestStart;
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} of the current view session start or 0 if there is none.
      */
-    private BitmapFetchTask mTask;
+    private long mViewSessionStart;
 
     /**
      * Handles callbacks from the {@link BitmapFetchTask}.
@@ -108,7 +234,7 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
      * {@link IBurstlyAdaptorListener#failedToLoad(String, boolean, String)} should be called when
      * the ad loading process successed/failed.
      */
-    private static class ImageFetchListener implements IBitmapFetchListener {
+    private static class ImageFetchListener implements IAnimationFetchListener {
 
         /**
          * Weak reference to the {@link MeganetAdaptor}.
@@ -140,15 +266,49 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
             final ImageView image = adaptor.mImageView;
             image.setAdjustViewBounds(true);
             image.setImageBitmap(fetchedBitmap);
+            if (!mIsInterstitial) {
+                // the bitmap was prepared for drawing by the fetch, the layout is done here
+                premeasure(image);
+            }
 
             if (mIsInterstitial && !adaptor.mIsPrecacheInterstitial) {
-                startInterstitial(adaptor);
+                // the reference is released when the interstitial is dismissed
+                BitmapPool.getInstance().acquire(fetchedBitmap);
+                if (!startInterstitial(adaptor)) {
+                    BitmapPool.getInstance().release(fetchedBitmap);
+                }
+            } else if (mIsInterstitial && !InterstitialStore.getInstance().put(adaptor.mZone, fetchedBitmap)) {
+                Logger.logInfo(this, "Precached interstitial does not fit into the memory budget.");
+                adaptor.notifyFailed(true, "Out of memory budget.");
             } else {
                 Logger.logInfo(this, "Loaded ad.");
+                // a precached banner is drawn whenever Burstly sdk shows it, so only banners shown
+                // right away are probed
+                if (!mIsInterstitial && !adaptor.mIsPrecacheBanner) {
+                    FirstFrameProbe.attach(image, System.nanoTime(), Phase.FIRST_DRAW);
+                }
                 // notify Burstly sdk about a successfully loaded ad
-                adaptor.mAdaptorListener.didLoad(adaptor.getNetworkName(), mIsInterstitial);
+                adaptor.notifyLoaded(mIsInterstitial);
             }
 
+            if (!mIsInterstitial) {
+                // the previous banner has been replaced by now, so its bitmap can be reused
+                adaptor.releaseAnimation();
+                final Bitmap previous = adaptor.mBitmap;
+                adaptor.mBitmap = fetchedBitmap;
+                BitmapPool.getInstance().acquire(fetchedBitmap);
+                BitmapPool.getInstance().release(previous);
+            }
+        }
+
+        @Override
+        public void animationLoaded(final Bitmap firstFrame, final Movie animation) {
+            imageLoaded(firstFrame);
+            final MeganetAdaptor adaptor = mAdaptor.get();
+            // interstitials are handed over as a bitmap, so they show the first frame
+            if (!mIsInterstitial && adaptor != null && !adaptor.isDestroyed() && adaptor.mBitmap == firstFrame) {
+                adaptor.startAnimation(animation);
+            }
         }
 
         @Override
@@ -160,7 +320,57 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
 
             Logger.logInfo(this, "Image was not fetched. See log for details.");
             // notify Burstly sdk that ad has been failed to load
-            adaptor.mAdaptorListener.failedToLoad(adaptor.getNetworkName(), false, "");
+            adaptor.notifyFailed(false, "");
+        }
+
+    }
+
+    /**
+     * Handles callbacks of the eager prefetch. Keeps the fetched bitmap until the ad is requested.
+     */
+    private static class PrefetchListener implements IAnimationFetchListener {
+
+        /**
+         * Weak reference to the {@link MeganetAdaptor}.
+         */
+        private final Reference<MeganetAdaptor> mAdaptor;
+
+        /**
+         * Constructs new instance.
+         */
+        PrefetchListener(final MeganetAdaptor adaptor) {
+            mAdaptor = new WeakReference<MeganetAdaptor>(adaptor);
+        }
+
+        @Override
+        public void imageLoaded(final Bitmap fetchedBitmap) {
+            final MeganetAdaptor adaptor = mAdaptor.get();
+            if (adaptor == null || adaptor.isDestroyed()) {
+                return;
+            }
+            adaptor.mPrefetchRequest = null;
+            BitmapPool.getInstance().acquire(fetchedBitmap);
+            adaptor.mPrefetchedBitmap = fetchedBitmap;
+            Logger.logDebug(this, "Creative prefetched.");
+        }
+
+        @Override
+        public void animationLoaded(final Bitmap firstFrame, final Movie animation) {
+            imageLoaded(firstFrame);
+            final MeganetAdaptor adaptor = mAdaptor.get();
+            if (adaptor != null && adaptor.mPrefetchedBitmap == firstFrame) {
+                adaptor.mPrefetchedAnimation = animation;
+            }
+        }
+
+        @Override
+        public void imageFailedToLoad() {
+            final MeganetAdaptor adaptor = mAdaptor.get();
+            if (adaptor == null || adaptor.isDestroyed()) {
+                return;
+            }
+            // the ad request will fetch the creative again
+            adaptor.mPrefetchRequest = null;
         }
 
     }
@@ -198,8 +408,22 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
                 return;
             }
 
-            // handle a click event. For example open a site.
-            adaptor.mContext.startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse("http://burstly.com")));
+            // open the landing page right away if the redirect chain is resolved, the click is then
+            // reported to the ad server in the background
+            final ClickResolver resolver = ClickResolver.getInstance();
+            final String landingUrl = resolver.getLandingUrl(adaptor.mClickUrl);
+            AdaptorMetrics.getInstance().increment(Counter.CLICKS);
+            if (landingUrl != null) {
+                AdaptorMetrics.getInstance().increment(Counter.PRERESOLVED_CLICKS);
+                resolver.track(adaptor.mClickUrl);
+            }
+            final String url = landingUrl != null ? landingUrl : adaptor.mClickUrl;
+            try {
+                adaptor.mContext.startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(url)));
+            }
+            catch (final ActivityNotFoundException e) {
+                Logger.logWarning(this, "No activity to open {}", url);
+            }
 
             Logger.logInfo(this, "Banner was clicked.");
             // notify Burstly sdk about 'ad click' event
@@ -214,7 +438,8 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
     public MeganetAdaptor(final Context context, final String viewId, final String adaptorName) {
         mContext = context;
         mAdaptorName = adaptorName;
-        Logger.logDebug(this, "Burstly view id: " + viewId);
+        mZone = viewId != null ? viewId : "";
+        Logger.logDebug(this, "Burstly view id: {}", viewId);
     }
 
     @Override
@@ -223,30 +448,235 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
             throw new IllegalArgumentException("Parameters from server cannot be null.");
         }
         checkParameters(paramsFromServer);
-        Logger.logDebug(this, "Transaction started with parameters from server: " + paramsFromServer.toString());
+        // parameters are formatted only if debug logging is enabled
+        Logger.logDebug(this, "Transaction started with parameters from server: {}", paramsFromServer);
+        if (mIsEagerPrefetch) {
+            cancelPrefetch();
+            // the ad request attaches to this fetch or takes its result
+            mPrefetchRequest = BitmapFetchRegistry.getInstance().fetch(mImageUrl, getScale(), getMaxSize(),
+                getDecodePreference(), mIsInterstitial ? FetchPriority.PRECACHE : FetchPriority.IMMEDIATE,
+                new PrefetchListener(this));
+        }
+        prepareView();
+    }
+
+    /**
+     * Enables fetching of the creative as soon as the transaction starts instead of waiting for the
+     * ad request.
+     */
+    void setEagerPrefetch(final boolean isEagerPrefetch) {
+        mIsEagerPrefetch = isEagerPrefetch;
+    }
+
+    /**
+     * Enables showing interstitials as an overlay of the current activity instead of launching
+     * {@link MeganetInterstitialActivity}.
+     */
+    void setOverlayEnabled(final boolean isOverlayEnabled) {
+        mIsOverlayEnabled = isOverlayEnabled;
+    }
+
+    /**
+     * Sets time in milliseconds the image fetch should fit into when the server offers several variants.
+     */
+    void setVariantLatencyTarget(final long latencyTarget) {
+        mVariantLatencyTarget = latencyTarget;
+    }
+
+    /**
+     * Schedules creation of the image view for the coming ad request when the UI thread becomes idle,
+     * so the request does not construct it. Does nothing off the UI thread.
+     */
+    private void prepareView() {
+        if (mSpareView != null || mViewPreparation != null || Looper.myLooper() != Looper.getMainLooper()) {
+            return;
+        }
+        final MessageQueue.IdleHandler preparation = new MessageQueue.IdleHandler() {
+
+            @Override
+            public boolean queueIdle() {
+                mViewPreparation = null;
+                final Context context = mContext;
+                if (!mIsDestroyed && context != null) {
+                    mSpareView = new ImageView(context);
+                }
+                return false;
+            }
+
+        };
+        // the queue is published first, so a concurrent cancel always finds it
+        mViewPreparationQueue = Looper.myQueue();
+        mViewPreparation = preparation;
+        mViewPreparationQueue.addIdleHandler(preparation);
+    }
+
+    /**
+     * Returns the image view created ahead of the request or a new one if there is none.
+     */
+    private ImageView takeView() {
+        cancelViewPreparation();
+        final ImageView view = mSpareView;
+        mSpareView = null;
+        return view != null ? view : new ImageView(mContext);
+    }
+
+    /**
+     * Cancels the scheduled creation of the image view. May be called on any thread.
+     */
+    private void cancelViewPreparation() {
+        final MessageQueue.IdleHandler preparation = mViewPreparation;
+        if (preparation != null) {
+            mViewPreparation = null;
+            // the queue is thread safe, the handler is removed from the UI thread queue it was added to
+            mViewPreparationQueue.removeIdleHandler(preparation);
+        }
+    }
+
+    /**
+     * Measures and lays out the banner view at the size of its creative while it is not attached yet,
+     * so the drawable bounds are resolved before the first frame rather than in it. The container
+     * lays the view out again, but a layout of the same size does not reconfigure the drawable.
+     */
+    private static void premeasure(final ImageView view) {
+        if (view.getParent() != null) {
+            // an attached view is laid out by the next traversal anyway
+            return;
+        }
+        final int unspecified = MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED);
+        view.measure(unspecified, unspecified);
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
+    }
+
+    /**
+     * Cancels the eager prefetch and drops its result if it was not used.
+     */
+    private void cancelPrefetch() {
+        if (mPrefetchRequest != null) {
+            mPrefetchRequest.cancel();
+            mPrefetchRequest = null;
+        }
+        BitmapPool.getInstance().release(mPrefetchedBitmap);
+        mPrefetchedBitmap = null;
+        mPrefetchedAnimation = null;
+    }
+
+    /**
+     * Starts playing the animated banner creative in the ad view.
+     */
+    void startAnimation(final Movie animation) {
+        releaseAnimation();
+        mAnimationPlayer = new AnimationPlayer(mImageView, animation, mBitmap);
+        mAnimationPlayer.start();
+    }
+
+    /**
+     * Stops playing the animated banner creative and frees its frame buffers.
+     */
+    void releaseAnimation() {
+        if (mAnimationPlayer != null) {
+            mAnimationPlayer.release();
+            mAnimationPlayer = null;
+        }
+    }
+
+    /**
+     * Detaches from the ad fetch in progress. The download or decoding is stopped if no other adaptor
+     * waits for the same creative.
+     */
+    private void cancelRequest() {
+        if (mRequest != null) {
+            mRequest.cancel();
+            mRequest = null;
+        }
+    }
+
+    /**
+     * Cancels pending delivery of the prefetched bitmap to the ad view.
+     */
+    private void cancelPrefetchDelivery() {
+        if (mPrefetchDelivery != null) {
+            mHandler.removeCallbacks(mPrefetchDelivery);
+            mPrefetchDelivery = null;
+            BitmapPool.getInstance().release(mDeliveredBitmap);
+            mDeliveredBitmap = null;
+        }
+    }
+
+    /**
+     * Returns bitmap scale factor for the current display.
+     */
+    private float getScale() {
+        return mContext.getResources().getDisplayMetrics().density / mImageDensity;
+    }
+
+    /**
+     * Interstitials are shown fit to the screen, so a creative larger than the long side of the display
+     * is decoded down to it. Banners are not limited.
+     */
+    private int getMaxSize() {
+        if (!mIsInterstitial) {
+            return 0;
+        }
+        final DisplayMetrics metrics = mContext.getResources().getDisplayMetrics();
+        return Math.max(metrics.widthPixels, metrics.heightPixels);
+    }
+
+    /**
+     * Interstitials take the whole screen and are decoded in full color, opaque banners may take half
+     * of the memory.
+     */
+    private DecodePreference getDecodePreference() {
+        return mIsInterstitial ? DecodePreference.QUALITY : DecodePreference.MEMORY;
+    }
+
+    /**
+     * Called when the interstitial overlay or activity has been dismissed. Only the first call for the
+     * session takes effect.
+     * 
+     * @param session interstitial session
+     */
+    static void interstitialDismissed(final InterstitialSession session) {
+        if (!session.dismiss()) {
+            return;
+        }
+        // the creative is not displayed anymore, so its bitmap can be reused
+        final ImageView imageView = session.getImageView();
+        final Drawable drawable = imageView != null ? imageView.getDrawable() : null;
+        if (drawable instanceof BitmapDrawable) {
+            BitmapPool.getInstance().release(((BitmapDrawable)drawable).getBitmap());
+        }
     }
 
     /**
      * Start showing interstitial ad.
      * 
      * @param adaptor {@link MeganetAdaptor} current adaptor instance
+     * @return true if the interstitial overlay was shown or the interstitial activity was started
      */
-    static void startInterstitial(final MeganetAdaptor adaptor) {
+    static boolean startInterstitial(final MeganetAdaptor adaptor) {
         String cause = "Interstitial could not be shown because one is showing now.";
-        if (!sIsShowingNow) {
+        final InterstitialSession session = InterstitialSession.begin(adaptor.mImageView);
+        if (session != null) {
+            // an overlay is drawn in the next frame of the window on the screen, no activity launch
+            if (adaptor.mIsOverlayEnabled && InterstitialOverlay.show(adaptor.mContext, session)) {
+                FirstFrameProbe.attach(adaptor.mImageView, session.getStart(), Phase.SHOW);
+                Logger.logInfo(adaptor, "Showed interstitial overlay.");
+                session.markShowing();
+                adaptor.notifyLoaded(true);
+                return true;
+            }
             try {
                 final Context context = adaptor.mContext;
                 context.startActivity(new Intent(context, MeganetInterstitialActivity.class));
                 Logger.logInfo(adaptor, "Started interstitial ad.");
-                sInterstitialView = adaptor.mImageView;
-                sIsShowingNow = true;
+                session.markShowing();
                 // notify Burstly sdk about a successfully loaded ad
-                adaptor.mAdaptorListener.didLoad(adaptor.getNetworkName(), true);
-                return;
+                adaptor.notifyLoaded(true);
+                return true;
             }
             catch (final ActivityNotFoundException anfe) {
-                sInterstitialView = null;
-                sIsShowingNow = false;
+                // the caller keeps the bitmap reference
+                session.dismiss();
                 cause = anfe.getMessage();
                 Logger
                     .logWarning(adaptor,
@@ -254,27 +684,62 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
             }
         }
         // notify Burstly sdk about fail
-        adaptor.mAdaptorListener.failedToLoad(adaptor.getNetworkName(), true, cause);
+        adaptor.notifyFailed(true, cause);
+        return false;
     }
 
     @Override
     public void endTransaction(final TransactionCode endCode) {
-        Logger.logDebug(this, "Transaction ended with code: " + endCode.name());
+        // the ad was not requested, so the prefetched creative is not needed
+        cancelPrefetch();
+        if (endCode != TransactionCode.CODE_SUCCESS) {
+            // the transaction was given up, e.g. timed out, nobody waits for the ad anymore
+            cancelPrefetchDelivery();
+            cancelRequest();
+        }
+        BeaconQueue.getInstance().add(Beacon.transaction(mZone, endCode.name()));
+        Logger.logDebug(this, "Transaction ended with code: {}", endCode);
     }
 
     @Override
     public void startViewSession() {
+        mViewSessionStart = SystemClock.elapsedRealtime();
+        if (mAnimationPlayer != null) {
+            mAnimationPlayer.start();
+        }
+        BeaconQueue.getInstance().add(Beacon.impression(mZone));
         Logger.logDebug(this, "View session started.");
     }
 
     @Override
     public void endViewSession() {
+        if (mViewSessionStart != 0) {
+            BeaconQueue.getInstance().add(Beacon.viewSession(mZone, SystemClock.elapsedRealtime() - mViewSessionStart));
+            mViewSessionStart = 0;
+        }
+        // nobody sees the banner, so no frames are decoded until the next session
+        if (mAnimationPlayer != null) {
+            mAnimationPlayer.pause();
+        }
         Logger.logDebug(this, "View session ended.");
     }
 
     @Override
     public void destroy() {
-        sInterstitialView = null;
+        cancelPrefetchDelivery();
+        cancelPrefetch();
+        cancelRequest();
+        releaseAnimation();
+        cancelViewPreparation();
+        mSpareView = null;
+        BitmapPool.getInstance().release(mBitmap);
+        mBitmap = null;
+        // precached interstitials stay in the store for other adaptors of the zone
+        final InterstitialSession session = InterstitialSession.current();
+        if (session != null && session.getImageView() == mImageView && session.claimView() != null) {
+            // the activity was not created yet, it finishes when it finds no view to show
+            interstitialDismissed(session);
+        }
         mIsDestroyed = true;
         mIsInterstitial = false;
         mContext = null;
@@ -282,6 +747,30 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
         Logger.logDebug(this, "Adaptor destroyed.");
     }
 
+    /**
+     * Notifies Burstly SDK about a successfully loaded ad and records the time to fill.
+     */
+    void notifyLoaded(final boolean isInterstitial) {
+        final AdaptorMetrics metrics = AdaptorMetrics.getInstance();
+        metrics.increment(Counter.FILLS);
+        if (mRequestStart != 0) {
+            metrics.record(Phase.FILL, (System.nanoTime() - mRequestStart) / 1000);
+            mRequestStart = 0;
+        }
+        mAdaptorListener.didLoad(getNetworkName(), isInterstitial);
+        // the click is likely to follow the impression, resolve its redirects now
+        ClickResolver.getInstance().resolve(mClickUrl);
+    }
+
+    /**
+     * Notifies Burstly SDK that ad has been failed to load.
+     */
+    void notifyFailed(final boolean isInterstitial, final String cause) {
+        AdaptorMetrics.getInstance().increment(Counter.FAILURES);
+        mRequestStart = 0;
+        mAdaptorListener.failedToLoad(getNetworkName(), isInterstitial, cause);
+    }
+
     /**
      * Specifies whether the adaptor is marked as destroyed.
      */
@@ -291,14 +780,40 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
 
     @Override
     public View getNewAd() {
-        // not in precache mode
-        mIsPrecacheInterstitial = false;
+        mIsPrecacheBanner = false;
+        return requestAd(false);
+    }
+
+    /**
+     * Creates a new ad view and requests the image asynchronously.
+     * 
+     * @param isPrecacheInterstitial whether the interstitial is precached for later display
+     * @return banner view or null for interstitials
+     */
+    private View requestAd(final boolean isPrecacheInterstitial) {
+        mRequestStart = System.nanoTime();
+        mIsPrecacheInterstitial = isPrecacheInterstitial;
         // create a new ad impl and request for image asynchronously
-        mImageView = new ImageView(mContext);
+        mImageView = takeView();
         mImageView.setOnClickListener(new ImageClickListener(this, mIsInterstitial));
-        mTask = new BitmapFetchTask(new ImageFetchListener(this, mIsInterstitial));
-        mTask.setScale(mContext.getResources().getDisplayMetrics().density);
-        mTask.execute(mImageUrl);
+        final ImageFetchListener listener = new ImageFetchListener(this, mIsInterstitial);
+        final BitmapFetchRegistry.Request previous = mRequest;
+        mRequest = null;
+        if (mPrefetchedBitmap != null) {
+            deliverPrefetched(listener);
+        } else {
+            // visible banners and interstitials shown right away go ahead of precaches
+            final FetchPriority priority = isPrecacheInterstitial ? FetchPriority.PRECACHE : FetchPriority.IMMEDIATE;
+            // adaptors requesting the same creative at the same time share a single fetch
+            mRequest = BitmapFetchRegistry.getInstance().fetch(mImageUrl, getScale(), getMaxSize(),
+                getDecodePreference(), priority, listener);
+            // the eager prefetch in flight, if any, keeps going for the request above
+            cancelPrefetch();
+        }
+        // the new request is attached first, so a fetch of the same creative is not restarted
+        if (previous != null) {
+            previous.cancel();
+        }
 
         if (!mIsInterstitial) {
             return mImageView;
@@ -306,13 +821,43 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
         return null;
     }
 
+    /**
+     * Hands the prefetched bitmap to the listener. The delivery is posted, so the callback is not
+     * invoked before the ad view is returned to Burstly SDK.
+     */
+    private void deliverPrefetched(final ImageFetchListener listener) {
+        cancelPrefetchDelivery();
+        final Bitmap bitmap = mPrefetchedBitmap;
+        final Movie animation = mPrefetchedAnimation;
+        mPrefetchedBitmap = null;
+        mPrefetchedAnimation = null;
+        mDeliveredBitmap = bitmap;
+        mPrefetchDelivery = new Runnable() {
+
+            @Override
+            public void run() {
+                mPrefetchDelivery = null;
+                mDeliveredBitmap = null;
+                if (animation != null) {
+                    listener.animationLoaded(bitmap, animation);
+                } else {
+                    listener.imageLoaded(bitmap);
+                }
+                BitmapPool.getInstance().release(bitmap);
+            }
+
+        };
+        mHandler.post(mPrefetchDelivery);
+    }
+
     @Override
     public View precacheAd() {
         // default implementation for banner is the same as for getNewAd, except the fact
         // that after success callback banner will not be shown until next BurstlyView
         // sendRequestForAd(). This behaviour is offered out-of-the box and you should not bother
         // about it.
-        return getNewAd();
+        mIsPrecacheBanner = true;
+        return requestAd(false);
     }
 
     /**
@@ -354,51 +899,91 @@ public class MeganetAdaptor implements IBurstlyAdaptor {
 
     @Override
     public void precacheInterstitialAd() {
-        // call for getNewAd(); because in this adaptor implementation the logic of getting banner
-        // ads and interstitilial ads is the same.
-        getNewAd();
-        // in precache mode
-        mIsPrecacheInterstitial = true;
+        // the same as getNewAd(); because in this adaptor implementation the logic of getting banner
+        // ads and interstitilial ads is the same, but in precache mode.
+        requestAd(true);
     }
 
     @Override
     public void showPrecachedInterstitialAd() {
-        if (mImageView != null) {
-            startInterstitial(this);
-        } else {
-            mAdaptorListener.failedToLoad(mAdaptorName, true, "No precached ad.");
+        mRequestStart = System.nanoTime();
+        // served from memory, no network on the show path
+        final Bitmap bitmap = InterstitialStore.getInstance().take(mZone);
+        if (bitmap == null) {
+            notifyFailed(true, "No precached ad.");
+            return;
+        }
+        mImageView = takeView();
+        mImageView.setOnClickListener(new ImageClickListener(this, true));
+        mImageView.setAdjustViewBounds(true);
+        mImageView.setImageBitmap(bitmap);
+        // the reference taken from the store is released when the interstitial is dismissed
+        if (!startInterstitial(this)) {
+            BitmapPool.getInstance().release(bitmap);
         }
     }
 
     @Override
     public void pause() {
         // is called from BurstlyView onHideActivity
-        // nothing to do here in this example
+        if (mAnimationPlayer != null) {
+            mAnimationPlayer.pause();
+        }
     }
 
     protected void checkParameters(final Map<String, ?> paramsFromServer) throws IllegalArgumentException {
         final String interstitial = (String)paramsFromServer.get("isInterstitial");
         mIsInterstitial = interstitial != null && interstitial.equalsIgnoreCase("YES");
 
-        mImageUrl = (String)paramsFromServer.get("imageUrl");
-        if (mImageUrl == null) {
-            throw new IllegalArgumentException("Parameter 'imageUrl' can not be null.");
+        final String variants = (String)paramsFromServer.get("imageVariants");
+        // imageUrl stays the fallback for servers which do not offer variants
+        if (variants == null || !selectVariant(CreativeVariant.parse(variants))) {
+            mImageUrl = (String)paramsFromServer.get("imageUrl");
+            mImageDensity = 1;
+            if (mImageUrl == null) {
+                throw new IllegalArgumentException("Parameter 'imageUrl' can not be null.");
+            }
         }
 
+        final String clickUrl = (String)paramsFromServer.get("clickUrl");
+        mClickUrl = clickUrl != null ? clickUrl.trim() : DEFAULT_CLICK_URL;
+
+    }
+
+    /**
+     * Picks the image variant which suits the display density and is estimated to download within the
+     * latency target on the current network.
+     * 
+     * @return false if there are no variants to pick from
+     */
+    private boolean selectVariant(final List<CreativeVariant> variants) {
+        if (variants.isEmpty()) {
+            return false;
+        }
+        final ThroughputEstimator estimator = CreativeHttpClient.getInstance().getThroughputEstimator();
+        final CreativeVariant variant = VariantSelector.select(variants,
+            mContext.getResources().getDisplayMetrics().density, estimator, mVariantLatencyTarget);
+        mImageUrl = variant.getUrl();
+        mImageDensity = variant.getDensity();
+        if (Logger.isLoggable(Log.DEBUG)) {
+            Logger.logDebug(this, "Selected variant {} at {}B/s", variant, estimator.getBytesPerSecond());
+        }
+        return true;
     }
 
     @Override
     public void resume() {
         // is called from BurstlyView onShowActivity
-        // nothing to do here in this example
+        if (mAnimationPlayer != null) {
+            mAnimationPlayer.start();
+        }
     }
 
     @Override
     public void stop() {
-        if (mTask != null) {
-            mTask.cancel(true);
-            mTask = null;
-        }
+        cancelPrefetchDelivery();
+        cancelPrefetch();
+        cancelRequest();
     }
 
 }
\ No newline at end of file
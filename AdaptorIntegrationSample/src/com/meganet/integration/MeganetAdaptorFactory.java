@@ -15,11 +15,26 @@
  *******************************************************************************/
 package com.meganet.integration;
 
+import java.io.File;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.content.Context;
+import android.util.Log;
 
+import com.meganet.beacon.BeaconQueue;
+import com.meganet.cache.BitmapPool;
+import com.meganet.cache.CreativeCache;
+import com.meganet.cache.MemoryGovernor;
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.network.BitmapDecoder;
+import com.meganet.network.ClickResolver;
+import com.meganet.network.CreativeExecutor;
+import com.meganet.network.CreativeFetcher;
+import com.meganet.network.CreativeHttpClient;
+import com.meganet.pipeline.FetchPriority;
 import com.meganet.utils.Logger;
+import com.meganet.utils.ParameterUtils;
 
 import com.burstly.lib.component.IBurstlyAdaptor;
 import com.burstly.lib.feature.networks.IAdaptorFactory;
@@ -44,9 +59,118 @@ public class MeganetAdaptorFactory implements IAdaptorFactory {
      */
     private static final String ADAPTOR_NAME = "adaptorName";
 
+    /**
+     * Name of the creative cache directory inside the application cache directory.
+     */
+    private static final String CACHE_DIRECTORY = "meganet";
+
+    /**
+     * A key for the eager prefetch flag being passed in initialization parameters. When set, adaptors
+     * start fetching the creative in startTransaction() instead of waiting for the ad request.
+     */
+    private static final String EAGER_PREFETCH = "eagerPrefetch";
+
+    /**
+     * A key for the interstitial overlay flag being passed in initialization parameters. When set
+     * (default), interstitials are shown on top of the current activity instead of launching
+     * MeganetInterstitialActivity.
+     */
+    private static final String INTERSTITIAL_OVERLAY = "interstitialOverlay";
+
+    /**
+     * A key for the time in milliseconds a creative fetch should fit into being passed in initialization
+     * parameters. Among the creative variants estimated to download within it adaptors pick the one
+     * closest to the display density, preferring the larger file of equally suited ones. If no variant
+     * fits, the smallest file is picked.
+     */
+    private static final String VARIANT_LATENCY_TARGET = "variantLatencyTarget";
+
+    /**
+     * Default creative variant latency target in milliseconds.
+     */
+    private static final long DEFAULT_VARIANT_LATENCY_TARGET = 3000;
+
+    /**
+     * A key for the minimal log level (none, error, warning, info, debug) being passed in
+     * initialization parameters.
+     */
+    private static final String LOG_LEVEL = "logLevel";
+
+    /**
+     * Specifies whether created adaptors should prefetch creatives eagerly.
+     */
+    private boolean mIsEagerPrefetch;
+
+    /**
+     * Specifies whether created adaptors should show interstitials as an overlay.
+     */
+    private boolean mIsOverlayEnabled = true;
+
+    /**
+     * Creative variant latency target in milliseconds for created adaptors.
+     */
+    private long mVariantLatencyTarget = DEFAULT_VARIANT_LATENCY_TARGET;
+
+    /**
+     * Returns counters and latency histograms of all Meganet adaptors in the process, e.g. to ship them
+     * to monitoring.
+     */
+    public static AdaptorMetrics getMetrics() {
+        return AdaptorMetrics.getInstance();
+    }
+
     @Override
     public void initialize(final Map<String, ?> params) throws IllegalArgumentException {
+        if (params != null && params.get(LOG_LEVEL) instanceof String) {
+            Logger.setLevel(Logger.parseLevel((String)params.get(LOG_LEVEL), Log.DEBUG));
+        }
         Logger.logInfo(this, "Initialization called");
+        CreativeCache.getInstance().configure(params);
+        BitmapPool.getInstance().configure(params);
+        BitmapDecoder.configure(params);
+        CreativeExecutor.getInstance().configure(params);
+        CreativeHttpClient.getInstance().configure(params);
+        CreativeFetcher.getInstance().configure(params);
+        ClickResolver.getInstance().configure(params);
+        BeaconQueue.getInstance().configure(params);
+        InterstitialStore.getInstance().configure(params);
+        mIsEagerPrefetch = ParameterUtils.getBoolean(params, EAGER_PREFETCH, false);
+        mIsOverlayEnabled = ParameterUtils.getBoolean(params, INTERSTITIAL_OVERLAY, true);
+        mVariantLatencyTarget = ParameterUtils.getLong(params, VARIANT_LATENCY_TARGET, DEFAULT_VARIANT_LATENCY_TARGET);
+        if (params != null) {
+            attachContext(params.get(CONTEXT));
+        }
+    }
+
+    /**
+     * Starts the services which need a context: enables the disk cache in the application cache
+     * directory and loads the index persisted by the previous process in the background, so cached
+     * creatives can be served on the first request, starts beacon reporting and hooks the memory
+     * governor into the application memory callbacks.
+     */
+    private void attachContext(final Object context) {
+        if (!(context instanceof Context)) {
+            return;
+        }
+        BeaconQueue.getInstance().start((Context)context);
+        MemoryGovernor.getInstance().attach((Context)context);
+        final File directory = new File(((Context)context).getCacheDir(), CACHE_DIRECTORY);
+        if (!CreativeCache.getInstance().setDiskDirectory(directory)) {
+            return;
+        }
+        try {
+            CreativeExecutor.getInstance().submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    CreativeCache.getInstance().warmUp();
+                }
+
+            }, FetchPriority.PRECACHE);
+        }
+        catch (final RejectedExecutionException e) {
+            // the index will be loaded by the first request
+        }
     }
 
     @Override
@@ -59,7 +183,12 @@ public class MeganetAdaptorFactory implements IAdaptorFactory {
         final Object context = params.get(CONTEXT);
         final Object viewId = params.get(VIEW_ID);
         final Object adaptorName = params.get(ADAPTOR_NAME);
-        return new MeganetAdaptor((Context)context, (String)viewId, (String)adaptorName);
+        attachContext(context);
+        final MeganetAdaptor adaptor = new MeganetAdaptor((Context)context, (String)viewId, (String)adaptorName);
+        adaptor.setEagerPrefetch(mIsEagerPrefetch);
+        adaptor.setOverlayEnabled(mIsOverlayEnabled);
+        adaptor.setVariantLatencyTarget(mVariantLatencyTarget);
+        return adaptor;
     }
 
     @Override
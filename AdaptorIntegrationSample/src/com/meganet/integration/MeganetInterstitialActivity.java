@@ -5,19 +5,34 @@ import android.os.Bundle;
 import android.view.ViewGroup.LayoutParams;
 import android.widget.ImageView;
 
+import com.meganet.metrics.Phase;
+
 public class MeganetInterstitialActivity extends Activity {
 
+    private InterstitialSession mSession;
+
+    private ImageView mImageView;
+
     @Override
     protected void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        final ImageView mImageView = MeganetAdaptor.sInterstitialView;
-        MeganetAdaptor.sInterstitialView = null;
+        final InterstitialSession session = InterstitialSession.current();
+        mImageView = session != null ? session.claimView() : null;
+        if (mImageView == null) {
+            // recreated by the system after the interstitial was gone, the live session is not ours
+            finish();
+            return;
+        }
+        mSession = session;
+        FirstFrameProbe.attach(mImageView, session.getStart(), Phase.SHOW);
         addContentView(mImageView, new LayoutParams(LayoutParams.FILL_PARENT, LayoutParams.FILL_PARENT));
     }
 
     @Override
     protected void onDestroy() {
-        MeganetAdaptor.sIsShowingNow = false;
+        if (mSession != null) {
+            MeganetAdaptor.interstitialDismissed(mSession);
+        }
         super.onDestroy();
     }
 
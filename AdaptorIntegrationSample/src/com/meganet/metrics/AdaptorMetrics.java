@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Process-wide counters and latency histograms of the adaptor pipeline.
+ * <p>
+ * All the methods are lock-free and safe to call from any thread. The host application can read the
+ * values through {@code MeganetAdaptorFactory.getMetrics()} and ship them to its monitoring.
+ */
+public final class AdaptorMetrics {
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final AdaptorMetrics INSTANCE = new AdaptorMetrics();
+
+    /**
+     * Counter values indexed by {@link Counter} ordinal.
+     */
+    private final AtomicLongArray mCounters = new AtomicLongArray(Counter.values().length);
+
+    /**
+     * Latency histograms indexed by {@link Phase} ordinal.
+     */
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Phase.values().length];
+
+    /**
+     * Non constructable outside.
+     */
+    private AdaptorMetrics() {
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static AdaptorMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Increments the counter by one.
+     */
+    public void increment(final Counter counter) {
+        mCounters.incrementAndGet(counter.ordinal());
+    }
+
+    /**
+     * Adds the value to the counter.
+     */
+    public void add(final Counter counter, final long value) {
+        mCounters.addAndGet(counter.ordinal(), value);
+    }
+
+    /**
+     * Returns current value of the counter.
+     */
+    public long get(final Counter counter) {
+        return mCounters.get(counter.ordinal());
+    }
+
+    /**
+     * Records the latency of a phase.
+     * 
+     * @param phase timed phase
+     * @param micros latency in microseconds
+     */
+    public void record(final Phase phase, final long micros) {
+        mHistograms[phase.ordinal()].record(micros);
+    }
+
+    /**
+     * Records all the phases timed by the trace and the decoded bytes.
+     */
+    public void record(final FetchTrace trace) {
+        for (final Phase phase : Phase.values()) {
+            if (trace.has(phase)) {
+                record(phase, trace.getMicros(phase));
+            }
+        }
+        add(Counter.DECODED_BYTES, trace.getDecodedBytes());
+    }
+
+    /**
+     * Returns the latency histogram of the phase.
+     */
+    public LatencyHistogram getHistogram(final Phase phase) {
+        return mHistograms[phase.ordinal()];
+    }
+
+    /**
+     * Clears all counters and histograms.
+     */
+    public void reset() {
+        for (int i = 0; i < mCounters.length(); i++) {
+            mCounters.set(i, 0);
+        }
+        for (final LatencyHistogram histogram : mHistograms) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Counter counter : Counter.values()) {
+            builder.append(counter.name().toLowerCase(Locale.US)).append('=').append(get(counter)).append('\n');
+        }
+        for (final Phase phase : Phase.values()) {
+            builder.append(phase.name().toLowerCase(Locale.US)).append(": ").append(getHistogram(phase)).append('\n');
+        }
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.metrics;
+
+/**
+ * Counted events of the adaptor pipeline.
+ */
+public enum Counter {
+
+    /**
+     * Ads reported as loaded.
+     */
+    FILLS,
+
+    /**
+     * Ads reported as failed.
+     */
+    FAILURES,
+
+    /**
+     * Creatives served from the decoded bitmaps cache.
+     */
+    MEMORY_CACHE_HITS,
+
+    /**
+     * Creatives served from the disk cache without network access.
+     */
+    DISK_CACHE_HITS,
+
+    /**
+     * Expired creatives served from the disk cache while being revalidated in the background.
+     */
+    STALE_HITS,
+
+    /**
+     * Cached creatives revalidated by the server.
+     */
+    NOT_MODIFIED,
+
+    /**
+     * Creatives downloaded from the network.
+     */
+    DOWNLOADS,
+
+    /**
+     * Bytes of creatives received from the network.
+     */
+    BYTES_TRANSFERRED,
+
+    /**
+     * Bytes of decoded bitmaps.
+     */
+    DECODED_BYTES,
+
+    /**
+     * Bitmaps reused from the pool for decoding.
+     */
+    BITMAP_POOL_HITS,
+
+    /**
+     * Pool lookups which found no bitmap of the right size and config.
+     */
+    BITMAP_POOL_MISSES,
+
+    /**
+     * Fetches cancelled before completion.
+     */
+    CANCELLED_FETCHES,
+
+    /**
+     * Bytes of creatives which were not downloaded because their fetch was cancelled.
+     */
+    BYTES_SAVED_BY_CANCEL,
+
+    /**
+     * Creative requests repeated after a retryable error.
+     */
+    RETRIES,
+
+    /**
+     * Second requests started because the first one was slow.
+     */
+    HEDGED_REQUESTS,
+
+    /**
+     * Fetches completed by the second request.
+     */
+    HEDGE_WINS,
+
+    /**
+     * Ads clicked.
+     */
+    CLICKS,
+
+    /**
+     * Clicks which opened a landing url resolved in advance.
+     */
+    PRERESOLVED_CLICKS,
+
+    /**
+     * Beacons accepted by the server.
+     */
+    BEACONS_SENT,
+
+    /**
+     * Beacons dropped because the queue or the log was full.
+     */
+    BEACONS_DROPPED,
+
+    /**
+     * Memory trims requested by the system.
+     */
+    MEMORY_TRIMS,
+
+    /**
+     * Bytes of bitmaps freed on memory trims.
+     */
+    BYTES_RECLAIMED,
+
+    /**
+     * Display frames missed while a new creative appeared on the screen.
+     */
+    DROPPED_FRAMES
+
+}
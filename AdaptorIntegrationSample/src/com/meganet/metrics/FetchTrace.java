@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.metrics;
+
+import java.util.Locale;
+
+/**
+ * Phase timings of a single creative fetch. Not thread safe: a trace is filled by the fetch thread
+ * and published to {@link AdaptorMetrics} when the fetch completes.
+ */
+public class FetchTrace {
+
+    /**
+     * Durations of the phases in nanoseconds, indexed by {@link Phase} ordinal.
+     */
+    private final long[] mDurations = new long[Phase.values().length];
+
+    /**
+     * Size of the encoded creative in bytes or 0 if it was not loaded.
+     */
+    private long mPayloadBytes;
+
+    /**
+     * Size of the decoded bitmap in bytes or 0 if it was not decoded.
+     */
+    private long mDecodedBytes;
+
+    /**
+     * Adds time passed since <code>startNanos</code> to the phase.
+     * 
+     * @param phase timed phase
+     * @param startNanos {@link System#nanoTime()} at the start of the phase
+     * @return current {@link System#nanoTime()}, i.e. the start of the next phase
+     */
+    public long mark(final Phase phase, final long startNanos) {
+        final long now = System.nanoTime();
+        mDurations[phase.ordinal()] += now - startNanos;
+        return now;
+    }
+
+    /**
+     * Adds phase timings of another trace, e.g. of the request which completed the fetch.
+     */
+    public void add(final FetchTrace trace) {
+        for (int i = 0; i < mDurations.length; i++) {
+            mDurations[i] += trace.mDurations[i];
+        }
+    }
+
+    /**
+     * Sets size of the encoded creative in bytes.
+     */
+    public void setPayloadBytes(final long bytes) {
+        mPayloadBytes = bytes;
+    }
+
+    /**
+     * Returns size of the encoded creative in bytes or 0 if it was not loaded.
+     */
+    public long getPayloadBytes() {
+        return mPayloadBytes;
+    }
+
+    /**
+     * Sets size of the decoded bitmap in bytes.
+     */
+    public void setDecodedBytes(final long bytes) {
+        mDecodedBytes = bytes;
+    }
+
+    /**
+     * Returns size of the decoded bitmap in bytes or 0 if it was not decoded.
+     */
+    public long getDecodedBytes() {
+        return mDecodedBytes;
+    }
+
+    /**
+     * Returns duration of the phase in microseconds or 0 if the phase was not timed.
+     */
+    public long getMicros(final Phase phase) {
+        return mDurations[phase.ordinal()] / 1000;
+    }
+
+    /**
+     * Specifies whether the phase was timed.
+     */
+    public boolean has(final Phase phase) {
+        return mDurations[phase.ordinal()] > 0;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder();
+        for (final Phase phase : Phase.values()) {
+            if (has(phase)) {
+                builder.append(phase.name().toLowerCase(Locale.US)).append('=').append(getMicros(phase)).append("us ");
+            }
+        }
+        if (mPayloadBytes > 0) {
+            builder.append("payload=").append(mPayloadBytes).append("B ");
+        }
+        if (mDecodedBytes > 0) {
+            builder.append("decoded=").append(mDecodedBytes).append("B ");
+        }
+        return builder.toString().trim();
+    }
+
+}
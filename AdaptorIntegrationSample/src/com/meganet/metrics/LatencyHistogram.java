@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in microseconds.
+ * <p>
+ * Values are counted in log-linear buckets: every power of two range is split into 16 equal
+ * buckets, so a percentile is reported with a relative error of about 6%. Values above ~35 minutes
+ * are counted in the last bucket.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of bits of sub-bucket index.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Number of buckets per power of two range.
+     */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Largest power of two of tracked values.
+     */
+    private static final int MAX_EXPONENT = 31;
+
+    /**
+     * Total number of buckets.
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Counts per bucket.
+     */
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Records a latency.
+     * 
+     * @param micros latency in microseconds
+     */
+    public void record(final long micros) {
+        mCounts.incrementAndGet(bucketFor(micros));
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += mCounts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the latency in microseconds below which the specified share of recorded values falls.
+     * 
+     * @param percentile percentile from 0 to 100, e.g. 99 for p99
+     * @return latency in microseconds or 0 if nothing was recorded
+     */
+    public long getPercentile(final double percentile) {
+        final long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mCounts.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    /**
+     * Clears recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mCounts.set(i, 0);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + " p50=" + getPercentile(50) + "us p95=" + getPercentile(95) + "us p99="
+            + getPercentile(99) + "us";
+    }
+
+    /**
+     * Returns the index of the bucket for the value.
+     */
+    static int bucketFor(final long value) {
+        if (value < SUB_BUCKETS) {
+            return value < 0 ? 0 : (int)value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int shift = exponent - SUB_BUCKET_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int)(value >>> shift) - SUB_BUCKETS;
+    }
+
+    /**
+     * Returns the largest value counted in the bucket.
+     */
+    static long upperBound(final int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        final long mantissa = SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.metrics;
+
+/**
+ * Phases of an ad request timed by {@link FetchTrace}.
+ */
+public enum Phase {
+
+    /**
+     * Wait in the fetch queue.
+     */
+    QUEUE,
+
+    /**
+     * Host name resolution and connection establishment. Close to zero when a kept alive connection
+     * is reused.
+     */
+    CONNECT,
+
+    /**
+     * Time from the request being sent to the response headers.
+     */
+    FIRST_BYTE,
+
+    /**
+     * Download of the response body.
+     */
+    DOWNLOAD,
+
+    /**
+     * Decoding of the creative.
+     */
+    DECODE,
+
+    /**
+     * Final resize of the decoded creative.
+     */
+    SCALE,
+
+    /**
+     * Preparation of the decoded creative for drawing, done before it is handed to the UI thread.
+     */
+    PREPARE,
+
+    /**
+     * Time from the ad request to didLoad() callback.
+     */
+    FILL,
+
+    /**
+     * Time from the interstitial show request to its first frame.
+     */
+    SHOW,
+
+    /**
+     * Time from the banner creative being handed to Burstly SDK to the first frame drawing it.
+     * Banners precached by Burstly SDK are not recorded.
+     */
+    FIRST_DRAW,
+
+    /**
+     * Frame intervals while a new creative appears on the screen.
+     */
+    FRAME
+
+}
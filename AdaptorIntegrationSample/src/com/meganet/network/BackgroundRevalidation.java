@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.meganet.metrics.FetchTrace;
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CancellationToken;
+import com.meganet.pipeline.CreativeLookup;
+import com.meganet.pipeline.FetchPriority;
+import com.meganet.utils.Logger;
+
+/**
+ * Revalidates a creative which was served stale from the disk cache. Runs on {@link CreativeExecutor}
+ * with {@link FetchPriority#PRECACHE} priority, at most one revalidation per url at a time.
+ */
+class BackgroundRevalidation implements Runnable {
+
+    /**
+     * Urls being revalidated at the moment.
+     */
+    private static final ConcurrentHashMap<String, Boolean> IN_FLIGHT = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * Cache key of the creative.
+     */
+    private final String mKey;
+
+    /**
+     * Url to request.
+     */
+    private final String mUrl;
+
+    /**
+     * Stale copy of the creative.
+     */
+    private final CachedCreative mCached;
+
+    /**
+     * Cache to update.
+     */
+    private final CreativeLookup mCache;
+
+    /**
+     * Constructs new instance.
+     */
+    private BackgroundRevalidation(final String key, final String url, final CachedCreative cached,
+        final CreativeLookup cache) {
+        mKey = key;
+        mUrl = url;
+        mCached = cached;
+        mCache = cache;
+    }
+
+    /**
+     * Schedules revalidation of the stale creative unless it is being revalidated already.
+     * 
+     * @param key cache key of the creative
+     * @param url url to request
+     * @param cached stale copy of the creative
+     * @param cache cache to update
+     */
+    static void schedule(final String key, final String url, final CachedCreative cached, final CreativeLookup cache) {
+        if (IN_FLIGHT.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            CreativeExecutor.getInstance().submit(new BackgroundRevalidation(key, url, cached, cache),
+                FetchPriority.PRECACHE);
+        }
+        catch (final RejectedExecutionException e) {
+            // the creative will be revalidated when served stale next time
+            IN_FLIGHT.remove(key);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            final CreativeFetcher fetcher = CreativeFetcher.getInstance();
+            final CreativeHttpClient.Response response =
+                fetcher.fetch(mUrl, mCached, new FetchTrace(), new CancellationToken(), fetcher.getDeadline());
+            if (response.isNotModified()) {
+                mCache.refreshCreative(mKey);
+            } else {
+                mCache.putCreative(mKey, response.getBody(), response.getETag(), response.getLastModified());
+            }
+        }
+        catch (final IOException e) {
+            Logger.logWarning(this, "Could not revalidate creative: {}", e.getMessage());
+        }
+        finally {
+            IN_FLIGHT.remove(mKey);
+        }
+    }
+
+}
@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.io.IOException;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Build;
+
+import com.meganet.cache.BitmapPool;
+import com.meganet.metrics.FetchTrace;
+import com.meganet.metrics.Phase;
+import com.meganet.pipeline.CancellationToken;
+import com.meganet.pipeline.DecodePlan;
+import com.meganet.pipeline.DecodePreference;
+import com.meganet.pipeline.ImageHeaders;
+import com.meganet.utils.Logger;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Decodes creative bytes directly to the target size.
+ * <p>
+ * Image bounds are read first, then the decoder is configured according to {@link DecodePlan} with
+ * <code>inSampleSize</code> to skip pixels by powers of two and with
+ * <code>inDensity</code>/<code>inTargetDensity</code> to do the rest of the scaling in the same pass.
+ * Only a resize by a pixel or so caused by rounding may be left, so there is never a full size bitmap
+ * alive next to the scaled one.
+ * <p>
+ * Where the platform allows it, pixels are decoded into a bitmap taken from {@link BitmapPool}
+ * instead of allocating a new one.
+ * <p>
+ * The bitmap format is chosen per creative: hardware bitmaps where the platform supports them and
+ * they are enabled, RGB_565 for opaque creatives when memory is preferred and ARGB_8888 otherwise.
+ * <p>
+ * A creative larger than the maximum size, e.g. an interstitial larger than the screen, is decoded
+ * region by region with {@link BitmapRegionDecoder}: horizontal bands are decoded at the sample size
+ * and drawn scaled straight into the target bitmap, so only the target and one band are alive instead
+ * of the whole sampled image and its scaled copy. Bands overlap by a few rows, so filtering leaves no
+ * seams and the result looks the same as a whole decode.
+ * <p>
+ * A decode in progress is stopped with {@link BitmapFactory.Options#requestCancelDecode()} when its
+ * {@link CancellationToken} is cancelled, and the pooled bitmap it was decoding into is returned to
+ * the pool.
+ */
+public class BitmapDecoder {
+
+    /**
+     * A key for the hardware bitmaps flag being passed in factory parameters. Hardware bitmaps keep
+     * pixels in graphics memory only, but can not be drawn by software rendering, so they are off by
+     * default.
+     */
+    public static final String HARDWARE_BITMAPS = "hardwareBitmaps";
+
+    /**
+     * API level which introduced hardware bitmaps (Oreo).
+     */
+    private static final int HARDWARE_BITMAPS_SDK = 26;
+
+    /**
+     * API level which allows reusing a bitmap for a decode scaled by the decoder (KitKat).
+     */
+    private static final int SCALED_REUSE_SDK = 19;
+
+    /**
+     * API level which introduced region decoding (Gingerbread MR1).
+     */
+    private static final int REGION_DECODER_SDK = 10;
+
+    /**
+     * Approximate number of sampled pixels decoded per band.
+     */
+    private static final int BAND_PIXELS = 256 * 1024;
+
+    /**
+     * Number of sampled rows decoded above and below each band for filtering.
+     */
+    private static final int BAND_OVERLAP = 2;
+
+    /**
+     * Hardware bitmap config or null if it is not supported by the platform.
+     */
+    private static final Bitmap.Config HARDWARE = hardwareConfig();
+
+    /**
+     * Specifies whether hardware bitmaps should be decoded.
+     */
+    private static volatile boolean sIsHardwareEnabled;
+
+    /**
+     * Non constructable.
+     */
+    private BitmapDecoder() {
+    }
+
+    /**
+     * Applies the hardware bitmaps flag from the factory initialization parameters.
+     */
+    public static void configure(final Map<String, ?> params) {
+        sIsHardwareEnabled = ParameterUtils.getBoolean(params, HARDWARE_BITMAPS, false);
+    }
+
+    /**
+     * Decodes the image scaled by the specified factor.
+     * 
+     * @param data encoded image
+     * @param scale scale factor, usually display density
+     * @return decoded bitmap or null if the data could not be decoded
+     */
+    public static Bitmap decode(final byte[] data, final float scale) {
+        return decode(data, scale, new FetchTrace());
+    }
+
+    /**
+     * Decodes the image scaled by the specified factor timing decoding and final resize.
+     * 
+     * @param data encoded image
+     * @param scale scale factor, usually display density
+     * @param trace receives phase timings
+     * @return decoded bitmap or null if the data could not be decoded
+     */
+    public static Bitmap decode(final byte[] data, final float scale, final FetchTrace trace) {
+        return decode(data, scale, DecodePreference.QUALITY, trace, new CancellationToken());
+    }
+
+    /**
+     * Decodes the image scaled by the specified factor unless cancelled.
+     * 
+     * @param data encoded image
+     * @param scale scale factor, usually display density
+     * @param preference quality or memory preference
+     * @param trace receives phase timings
+     * @param token stops the decoding when cancelled
+     * @return decoded bitmap or null if the data could not be decoded or the decoding was cancelled
+     */
+    public static Bitmap decode(final byte[] data, final float scale, final DecodePreference preference,
+        final FetchTrace trace, final CancellationToken token) {
+        return decode(data, scale, 0, preference, trace, token);
+    }
+
+    /**
+     * Decodes the image scaled by the specified factor, but not larger than the maximum size, unless
+     * cancelled.
+     * 
+     * @param data encoded image
+     * @param scale scale factor, usually display density
+     * @param maxSize maximum width and height of the bitmap in pixels or 0 for no limit
+     * @param preference quality or memory preference
+     * @param trace receives phase timings
+     * @param token stops the decoding when cancelled
+     * @return decoded bitmap or null if the data could not be decoded or the decoding was cancelled
+     */
+    public static Bitmap decode(final byte[] data, final float scale, final int maxSize,
+        final DecodePreference preference, final FetchTrace trace, final CancellationToken token) {
+        long start = System.nanoTime();
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        final DecodePlan plan = DecodePlan.create(options.outWidth, options.outHeight, scale, maxSize);
+        if (plan == null || token.isCancelled()) {
+            return null;
+        }
+        final int targetWidth = plan.getTargetWidth();
+        final int targetHeight = plan.getTargetHeight();
+        final Bitmap.Config config = chooseConfig(data, preference);
+
+        final boolean isOversized = maxSize > 0 && Math.max(options.outWidth, options.outHeight) * scale > maxSize;
+        if (isOversized && plan.isScaled() && config != HARDWARE && Build.VERSION.SDK_INT >= REGION_DECODER_SDK) {
+            final Bitmap bitmap = decodeRegions(data, options.outWidth, options.outHeight, plan, config, token);
+            if (bitmap != null || token.isCancelled()) {
+                trace.mark(Phase.DECODE, start);
+                return bitmap;
+            }
+            // the format is not supported by the region decoder
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inPreferredConfig = config;
+        options.inDither = options.inPreferredConfig == Bitmap.Config.RGB_565;
+        options.inSampleSize = plan.getSampleSize();
+        options.inScaled = plan.isScaled();
+        if (plan.isScaled()) {
+            options.inDensity = plan.getDensity();
+            options.inTargetDensity = plan.getTargetDensity();
+        }
+        token.setCancelAction(new Runnable() {
+
+            @Override
+            public void run() {
+                options.requestCancelDecode();
+            }
+
+        });
+        final Bitmap bitmap;
+        try {
+            bitmap = decodeReusing(data, options, targetWidth, targetHeight);
+        }
+        finally {
+            token.clearCancelAction();
+        }
+        start = trace.mark(Phase.DECODE, start);
+        if (token.isCancelled()) {
+            recycle(bitmap != null ? bitmap : options.inBitmap);
+            return null;
+        }
+        final Bitmap resized = resize(bitmap, targetWidth, targetHeight);
+        if (resized != bitmap) {
+            trace.mark(Phase.SCALE, start);
+        }
+        return resized;
+    }
+
+    /**
+     * Decodes the image band by band into a bitmap of the target size.
+     * 
+     * @return decoded bitmap or null if the image could not be decoded this way or the decoding was
+     *         cancelled
+     */
+    private static Bitmap decodeRegions(final byte[] data, final int width, final int height,
+        final DecodePlan plan, final Bitmap.Config config, final CancellationToken token) {
+        final BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+        }
+        catch (final IOException e) {
+            return null;
+        }
+        final int targetWidth = plan.getTargetWidth();
+        final int targetHeight = plan.getTargetHeight();
+        Bitmap target = BitmapPool.getInstance().get(targetWidth, targetHeight, config);
+        if (target != null) {
+            target.eraseColor(0);
+        } else {
+            target = Bitmap.createBitmap(targetWidth, targetHeight, config);
+        }
+        final int sampleSize = plan.getSampleSize();
+        // band bounds in source rows, multiples of the sample size keep them on sampled rows
+        final int bandRows = Math.max(1, BAND_PIXELS / Math.max(1, width / sampleSize)) * sampleSize;
+        final int overlap = BAND_OVERLAP * sampleSize;
+        final float scaleY = (float)targetHeight / height;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = config;
+        final Canvas canvas = new Canvas(target);
+        final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        final Rect region = new Rect();
+        final Rect source = new Rect();
+        final RectF destination = new RectF();
+        try {
+            for (int top = 0; top < height; top += bandRows) {
+                final int bottom = Math.min(height, top + bandRows);
+                final int regionTop = Math.max(0, top - overlap);
+                final int regionBottom = Math.min(height, bottom + overlap);
+                region.set(0, regionTop, width, regionBottom);
+                final Bitmap band = token.isCancelled() ? null : decoder.decodeRegion(region, options);
+                if (band == null) {
+                    BitmapPool.getInstance().put(target);
+                    return null;
+                }
+                // draw the band without its overlap, the filter still samples the overlap rows
+                final float bandScale = (float)band.getHeight() / (regionBottom - regionTop);
+                source.set(0, Math.round((top - regionTop) * bandScale), band.getWidth(),
+                    Math.round((bottom - regionTop) * bandScale));
+                destination.set(0, top * scaleY, targetWidth, bottom * scaleY);
+                canvas.drawBitmap(band, source, destination, paint);
+                band.recycle();
+            }
+        }
+        finally {
+            decoder.recycle();
+        }
+        Logger.logDebug(BitmapDecoder.class, "Decoded {}x{} by regions", Integer.valueOf(width),
+            Integer.valueOf(height));
+        return target;
+    }
+
+    /**
+     * Chooses the bitmap format for the creative.
+     */
+    static Bitmap.Config chooseConfig(final byte[] data, final DecodePreference preference) {
+        if (HARDWARE != null && sIsHardwareEnabled) {
+            return HARDWARE;
+        }
+        if (preference == DecodePreference.MEMORY && ImageHeaders.isOpaque(data)) {
+            return Bitmap.Config.RGB_565;
+        }
+        return Bitmap.Config.ARGB_8888;
+    }
+
+    /**
+     * Looks up the hardware bitmap config which is missing in the SDK the library is built with.
+     */
+    private static Bitmap.Config hardwareConfig() {
+        if (Build.VERSION.SDK_INT < HARDWARE_BITMAPS_SDK) {
+            return null;
+        }
+        try {
+            return Bitmap.Config.valueOf("HARDWARE");
+        }
+        catch (final IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bitmap of a cancelled decode to the pool.
+     */
+    private static void recycle(final Bitmap bitmap) {
+        if (bitmap != null && bitmap.isMutable()) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+    }
+
+    /**
+     * Decodes the image trying to reuse a pooled bitmap. Before KitKat a bitmap can be reused only if
+     * no scaling is done by the decoder.
+     */
+    private static Bitmap decodeReusing(final byte[] data, final BitmapFactory.Options options,
+        final int targetWidth, final int targetHeight) {
+        // hardware bitmaps are immutable and can not be reused
+        if (!BitmapPool.isSupported() || options.inPreferredConfig == HARDWARE) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        options.inMutable = true;
+        if (Build.VERSION.SDK_INT >= SCALED_REUSE_SDK || options.inSampleSize == 1 && !options.inScaled) {
+            options.inBitmap = BitmapPool.getInstance().get(targetWidth, targetHeight, options.inPreferredConfig);
+        }
+        if (options.inBitmap == null) {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        try {
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        catch (final IllegalArgumentException e) {
+            // the pooled bitmap does not fit, decode into a new one
+            BitmapPool.getInstance().put(options.inBitmap);
+            options.inBitmap = null;
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+    }
+
+    /**
+     * Fixes rounding errors left after the decoding. Hardware bitmaps are left as is, the view scales
+     * them by a pixel or so while drawing.
+     */
+    private static Bitmap resize(final Bitmap bitmap, final int targetWidth, final int targetHeight) {
+        if (bitmap == null || bitmap.getWidth() == targetWidth && bitmap.getHeight() == targetHeight
+            || bitmap.getConfig() == HARDWARE && HARDWARE != null) {
+            return bitmap;
+        }
+        final Bitmap resized = Bitmap.createScaledBitmap(bitmap, targetWidth, targetHeight, true);
+        if (resized != bitmap) {
+            BitmapPool.getInstance().put(bitmap);
+        }
+        return resized;
+    }
+
+}
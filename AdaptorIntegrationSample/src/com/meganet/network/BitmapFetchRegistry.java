@@ -0,0 +1,220 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.Bitmap;
+import android.graphics.Movie;
+
+import com.meganet.pipeline.DecodePreference;
+import com.meganet.pipeline.FetchPriority;
+
+/**
+ * Registry of creative fetches in progress shared by all adaptors.
+ * <p>
+ * Requests for the same url, scale, maximum size and decode preference issued while a fetch is in
+ * flight attach to that fetch instead of starting a new one, and all their listeners are notified
+ * when it completes. A fetch is cancelled only when every request attached to it has been cancelled.
+ * A request of a higher priority attaching to a fetch still waiting in the queue moves the fetch ahead.
+ */
+public final class BitmapFetchRegistry {
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final BitmapFetchRegistry INSTANCE = new BitmapFetchRegistry();
+
+    /**
+     * Fetches in flight mapped by url, scale, maximum size and decode preference.
+     */
+    private final Map<String, InFlightFetch> mInFlight = new HashMap<String, InFlightFetch>();
+
+    /**
+     * Single request for a creative. Returned by {@link BitmapFetchRegistry#fetch}.
+     */
+    public static class Request {
+
+        /**
+         * Listener of this request.
+         */
+        final IBitmapFetchListener mListener;
+
+        /**
+         * Fetch this request is attached to.
+         */
+        final InFlightFetch mFetch;
+
+        /**
+         * Constructs new instance.
+         */
+        Request(final IBitmapFetchListener listener, final InFlightFetch fetch) {
+            mListener = listener;
+            mFetch = fetch;
+        }
+
+        /**
+         * Detaches this request from the fetch. The fetch itself is cancelled if no other request is
+         * waiting for it.
+         */
+        public void cancel() {
+            INSTANCE.cancel(this);
+        }
+    }
+
+    /**
+     * Single fetch with all the requests waiting for it.
+     */
+    private class InFlightFetch implements IAnimationFetchListener {
+
+        /**
+         * Registry key.
+         */
+        final String mKey;
+
+        /**
+         * Task doing the work.
+         */
+        final BitmapFetchTask mTask;
+
+        /**
+         * Requests attached to this fetch.
+         */
+        final List<Request> mRequests = new ArrayList<Request>(2);
+
+        /**
+         * Constructs new instance.
+         */
+        InFlightFetch(final String key, final float scale, final int maxSize, final DecodePreference preference) {
+            mKey = key;
+            mTask = new BitmapFetchTask(this);
+            mTask.setScale(scale);
+            mTask.setMaxSize(maxSize);
+            mTask.setDecodePreference(preference);
+        }
+
+        @Override
+        public void imageLoaded(final Bitmap fetchedBitmap) {
+            for (final Request request : complete(this)) {
+                if (request.mListener != null) {
+                    request.mListener.imageLoaded(fetchedBitmap);
+                }
+            }
+        }
+
+        @Override
+        public void animationLoaded(final Bitmap firstFrame, final Movie animation) {
+            for (final Request request : complete(this)) {
+                if (request.mListener instanceof IAnimationFetchListener) {
+                    ((IAnimationFetchListener)request.mListener).animationLoaded(firstFrame, animation);
+                } else if (request.mListener != null) {
+                    request.mListener.imageLoaded(firstFrame);
+                }
+            }
+        }
+
+        @Override
+        public void imageFailedToLoad() {
+            for (final Request request : complete(this)) {
+                if (request.mListener != null) {
+                    request.mListener.imageFailedToLoad();
+                }
+            }
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private BitmapFetchRegistry() {
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static BitmapFetchRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Requests a creative. Starts a new fetch or attaches to the one in flight for the same url, scale,
+     * maximum size and decode preference.
+     * 
+     * @param bitmapUrl url of the creative
+     * @param scale bitmap scale factor
+     * @param maxSize maximum width and height of the bitmap in pixels or 0 for no limit
+     * @param preference quality or memory preference of the decoded bitmap
+     * @param priority priority of a new fetch, raises the priority of the fetch in flight if it is
+     *        still pending
+     * @param listener will be notified on the main thread when the fetch completes
+     * @return request which can be cancelled
+     */
+    public Request fetch(final String bitmapUrl, final float scale, final int maxSize,
+        final DecodePreference preference, final FetchPriority priority, final IBitmapFetchListener listener) {
+        final InFlightFetch fetch;
+        final Request request;
+        final boolean isNew;
+        synchronized (this) {
+            final String key = scale + "|" + maxSize + "|" + preference + "|" + bitmapUrl;
+            final InFlightFetch existing = mInFlight.get(key);
+            isNew = existing == null;
+            fetch = isNew ? new InFlightFetch(key, scale, maxSize, preference) : existing;
+            request = new Request(listener, fetch);
+            fetch.mRequests.add(request);
+            if (isNew) {
+                mInFlight.put(key, fetch);
+            }
+        }
+        if (isNew) {
+            fetch.mTask.fetch(bitmapUrl, priority);
+        } else {
+            fetch.mTask.raisePriority(priority);
+        }
+        return request;
+    }
+
+    /**
+     * Detaches the request and cancels its fetch if nobody else waits for it.
+     */
+    void cancel(final Request request) {
+        final InFlightFetch fetch = request.mFetch;
+        synchronized (this) {
+            if (!fetch.mRequests.remove(request) || !fetch.mRequests.isEmpty()) {
+                return;
+            }
+            mInFlight.remove(fetch.mKey);
+        }
+        fetch.mTask.abort();
+    }
+
+    /**
+     * Removes the fetch from the registry.
+     * 
+     * @return requests which were attached to the fetch
+     */
+    synchronized List<Request> complete(final InFlightFetch fetch) {
+        if (mInFlight.get(fetch.mKey) == fetch) {
+            mInFlight.remove(fetch.mKey);
+        }
+        final List<Request> requests = new ArrayList<Request>(fetch.mRequests);
+        fetch.mRequests.clear();
+        return requests;
+    }
+
+}
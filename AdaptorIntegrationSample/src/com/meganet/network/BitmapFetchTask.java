@@ -15,24 +15,67 @@
  *******************************************************************************/
 package com.meganet.network;
 
-import java.io.FilterInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLConnection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.graphics.Movie;
 import android.os.AsyncTask;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 
+import com.meganet.cache.BitmapMemoryCache;
+import com.meganet.cache.BitmapPool;
+import com.meganet.cache.CreativeCache;
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.metrics.FetchTrace;
+import com.meganet.metrics.Phase;
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CancellationToken;
+import com.meganet.pipeline.CreativeLookup;
+import com.meganet.pipeline.DecodePreference;
+import com.meganet.pipeline.DefaultUrlNormalizer;
+import com.meganet.pipeline.FetchPriority;
+import com.meganet.pipeline.ImageHeaders;
+import com.meganet.pipeline.UrlNormalizer;
 import com.meganet.utils.Logger;
 
 /**
  * Asynchronous task for fetching a bitmap image from the specified url.
+ * <p>
+ * {@link CreativeCache} is consulted before going to the network: a decoded bitmap of the same
+ * scale is returned as is, cached raw bytes are decoded without downloading them again. Expired raw
+ * bytes are revalidated with {@link CreativeFetcher} before use, unless they are recent enough to be
+ * served right away and revalidated in the background. The deadline of the fetch starts
+ * when the task is created, so time spent in the queue counts too.
+ * <p>
+ * Animated GIF creatives are decoded into their first frame like static ones and additionally into
+ * a {@link Movie} decoding the frames on demand, which is passed to an
+ * {@link IAnimationFetchListener}. Their first frame is not put into the memory cache, so the next
+ * fetch gets the bytes to animate again from the disk cache.
+ * <p>
+ * A decoded bitmap is prepared for drawing with {@link Bitmap#prepareToDraw()} on the fetch thread,
+ * so the first frame showing it does not build its drawing caches on the UI thread.
+ * <p>
+ * The task holds a {@link BitmapPool} reference to the fetched bitmap until its listener has been
+ * notified, so the bitmap cannot be evicted into the pool and decoded over before the listener takes
+ * a reference of its own.
+ * <p>
+ * Use {@link #fetch(String, FetchPriority)} to run the task on {@link CreativeExecutor} instead of
+ * the global AsyncTask executor. Use {@link #abort()} rather than {@link #cancel(boolean)} to stop the
+ * download or decoding in progress too.
  */
 public class BitmapFetchTask extends AsyncTask<String, Void, Boolean> {
 
+    /**
+     * Normalizes urls received from server before requesting them.
+     */
+    private static final UrlNormalizer URL_NORMALIZER = new DefaultUrlNormalizer();
+
     /**
      * Reference to {@link IBitmapFetchListener}.
      */
@@ -44,15 +87,62 @@ public class BitmapFetchTask extends AsyncTask<String, Void, Boolean> {
     private String mBitmapUrl;
 
     /**
-     * Reference to the fetched bitmap.
+     * Reference to the fetched bitmap. A {@link BitmapPool} reference is held to it until the listener
+     * has been notified.
      */
     private Bitmap mFetchedBitmap;
 
+    /**
+     * Animation of the fetched creative or null if it is static.
+     */
+    private Movie mAnimation;
+
     /**
      * Scale factor.
      */
     private float mScale = 1f;
 
+    /**
+     * Maximum width and height of the bitmap in pixels or 0 for no limit.
+     */
+    private int mMaxSize;
+
+    /**
+     * Quality or memory preference of the decoded bitmap.
+     */
+    private DecodePreference mPreference = DecodePreference.QUALITY;
+
+    /**
+     * Phase timings of this fetch.
+     */
+    private final FetchTrace mTrace = new FetchTrace();
+
+    /**
+     * Time the task was created, i.e. the start of the wait in the queue.
+     */
+    private final long mCreated = System.nanoTime();
+
+    /**
+     * Stops the network request or decoding in progress.
+     */
+    private final CancellationToken mToken = new CancellationToken();
+
+    /**
+     * Runnable of this task submitted to {@link CreativeExecutor} or null if the task was not submitted
+     * there. Guarded by this.
+     */
+    private Runnable mSubmitted;
+
+    /**
+     * Highest priority requested for this task. Guarded by this.
+     */
+    private FetchPriority mPriority;
+
+    /**
+     * {@link System#currentTimeMillis()} by which the fetch must be complete.
+     */
+    private final long mDeadline = CreativeFetcher.getInstance().getDeadline();
+
     /**
      * Constructs a new {@link BitmapFetchTask} instance.
      * 
@@ -66,29 +156,151 @@ public class BitmapFetchTask extends AsyncTask<String, Void, Boolean> {
         mListener = listener;
     }
 
+    /**
+     * Starts fetching the bitmap on {@link CreativeExecutor} with the specified priority. Falls back
+     * to the default AsyncTask executor on platforms which do not allow custom executors.
+     */
+    public void fetch(final String bitmapUrl, final FetchPriority priority) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            execute(bitmapUrl);
+            return;
+        }
+        try {
+            executeOnExecutor(new Executor() {
+
+                @Override
+                public void execute(final Runnable command) {
+                    submit(command, priority);
+                }
+
+            }, bitmapUrl);
+        }
+        catch (final RejectedExecutionException e) {
+            Logger.logWarning(this, "Fetch rejected: {}", e.getMessage());
+            // keep the callback asynchronous as if the fetch has failed
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+
+                @Override
+                public void run() {
+                    onPostExecute(Boolean.FALSE);
+                }
+
+            });
+        }
+    }
+
+    /**
+     * Submits the runnable of this task to {@link CreativeExecutor} with the highest priority requested
+     * so far.
+     */
+    private synchronized void submit(final Runnable command, final FetchPriority priority) {
+        if (mPriority == null || priority.compareTo(mPriority) < 0) {
+            mPriority = priority;
+        }
+        CreativeExecutor.getInstance().submit(command, mPriority);
+        mSubmitted = command;
+    }
+
+    /**
+     * Moves the fetch ahead if it is still waiting in the queue with a lower priority, e.g. when a
+     * creative which should be displayed right away attaches to a precache fetch.
+     */
+    public synchronized void raisePriority(final FetchPriority priority) {
+        if (mPriority != null && priority.compareTo(mPriority) >= 0) {
+            return;
+        }
+        mPriority = priority;
+        if (mSubmitted != null && CreativeExecutor.getInstance().raisePriority(mSubmitted, priority)) {
+            Logger.logDebug(this, "Pending fetch raised to {}", priority);
+        }
+    }
+
+    /**
+     * Cancels the task closing its connection or stopping its decoding. The listener is not notified.
+     */
+    public void abort() {
+        if (mToken.isCancelled() || getStatus() == Status.FINISHED) {
+            return;
+        }
+        AdaptorMetrics.getInstance().increment(Counter.CANCELLED_FETCHES);
+        mToken.cancel();
+        cancel(false);
+    }
+
     @Override
     protected Boolean doInBackground(final String... bitmapUrl) {
         if (bitmapUrl.length < 1 || bitmapUrl[0] == null) {
             return false;
         }
+        mTrace.mark(Phase.QUEUE, mCreated);
         mBitmapUrl = bitmapUrl[0];
-        mFetchedBitmap = scaleBitmap(fetchBitmap(mBitmapUrl));
+        if (mToken.isCancelled()) {
+            return false;
+        }
+        final CreativeCache cache = CreativeCache.getInstance();
+        // comes with the reference of this task
+        mFetchedBitmap = cache.getBitmap(mBitmapUrl, mScale, mMaxSize, mPreference);
+        if (mFetchedBitmap != null) {
+            AdaptorMetrics.getInstance().increment(Counter.MEMORY_CACHE_HITS);
+            return true;
+        }
+
+        final byte[] data = loadBytes(cache);
+        if (data == null || mToken.isCancelled()) {
+            return false;
+        }
+        mTrace.setPayloadBytes(data.length);
+        mFetchedBitmap = BitmapDecoder.decode(data, mScale, mMaxSize, mPreference, mTrace, mToken);
         if (mFetchedBitmap == null) {
+            // a cancelled decode says nothing about the data
+            if (!mToken.isCancelled()) {
+                cache.removeCreative(mBitmapUrl);
+            }
             return false;
         }
+        // the reference of this task, the cache and the listener take their own
+        BitmapPool.getInstance().acquire(mFetchedBitmap);
+        mTrace.setDecodedBytes(BitmapMemoryCache.sizeOf(mFetchedBitmap));
+        final long start = System.nanoTime();
+        mFetchedBitmap.prepareToDraw();
+        mTrace.mark(Phase.PREPARE, start);
+        if (ImageHeaders.isAnimatedGif(data)) {
+            mAnimation = decodeAnimation(data);
+        }
+        if (mAnimation == null) {
+            cache.putBitmap(mBitmapUrl, mScale, mMaxSize, mPreference, mFetchedBitmap);
+        }
         return true;
     }
 
     @Override
     protected void onPostExecute(final Boolean result) {
-        if (mListener == null) {
-            return;
-        }
-        if (result) {
-            mListener.imageLoaded(mFetchedBitmap);
-        } else {
-            mListener.imageFailedToLoad();
+        AdaptorMetrics.getInstance().record(mTrace);
+        Logger.logDebug(this, "Fetch of {} timings: {}", mBitmapUrl, mTrace);
+        if (mListener != null) {
+            if (result && mAnimation != null && mListener instanceof IAnimationFetchListener) {
+                ((IAnimationFetchListener)mListener).animationLoaded(mFetchedBitmap, mAnimation);
+            } else if (result) {
+                mListener.imageLoaded(mFetchedBitmap);
+            } else {
+                mListener.imageFailedToLoad();
+            }
         }
+        releaseBitmap();
+    }
+
+    @Override
+    protected void onCancelled() {
+        releaseBitmap();
+    }
+
+    /**
+     * Releases the reference of this task to the fetched bitmap. The bitmap goes to the pool unless the
+     * cache or the listener took it over.
+     */
+    private void releaseBitmap() {
+        BitmapPool.getInstance().release(mFetchedBitmap);
+        mFetchedBitmap = null;
     }
 
     /**
@@ -99,71 +311,65 @@ public class BitmapFetchTask extends AsyncTask<String, Void, Boolean> {
     }
 
     /**
-     * Scales bitmap if nesseccary.
+     * Sets maximum width and height of the bitmap in pixels, 0 for no limit. Larger creatives are
+     * scaled down to fit.
      */
-    private Bitmap scaleBitmap(final Bitmap bitmap) {
-        if (bitmap == null || mScale == 1f) {
-            return bitmap;
-        }
-        final int scaledWidth = (int)(mScale * bitmap.getWidth());
-        final int scaledHeight = (int)(mScale * bitmap.getHeight());
-        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+    public void setMaxSize(final int maxSize) {
+        mMaxSize = maxSize;
     }
 
     /**
-     * Fetches bitmap from the specified url.
+     * Sets quality or memory preference of the decoded bitmap.
      */
-    private Bitmap fetchBitmap(final String bitmapUrl) {
+    public void setDecodePreference(final DecodePreference preference) {
+        mPreference = preference;
+    }
+
+    /**
+     * Decodes the animation. Only the GIF structure is parsed here, frames are decoded when drawn.
+     * 
+     * @return animation or null if the platform could not decode it
+     */
+    private static Movie decodeAnimation(final byte[] data) {
+        final Movie movie = Movie.decodeByteArray(data, 0, data.length);
+        return movie != null && movie.duration() > 0 && movie.width() > 0 ? movie : null;
+    }
+
+    /**
+     * Returns raw image bytes from the disk cache, revalidating or downloading them if necessary.
+     */
+    private byte[] loadBytes(final CreativeLookup cache) {
+        final CachedCreative cached = cache.getCreative(mBitmapUrl);
+        if (cached != null && !cached.isExpired()) {
+            AdaptorMetrics.getInstance().increment(Counter.DISK_CACHE_HITS);
+            return cached.getData();
+        }
+        final String url = URL_NORMALIZER.normalize(mBitmapUrl);
+        if (cached != null && cached.isServableStale()) {
+            AdaptorMetrics.getInstance().increment(Counter.STALE_HITS);
+            BackgroundRevalidation.schedule(mBitmapUrl, url, cached, cache);
+            return cached.getData();
+        }
         try {
-            final URL url = new URL(bitmapUrl.replace(" ", "%20"));
-            final URLConnection connection = url.openConnection();
-            connection.setUseCaches(true);
-            connection.connect();
-            final FlushedInputStream fis = new FlushedInputStream(connection.getInputStream());
-            final Bitmap bitmap = BitmapFactory.decodeStream(fis);
-            fis.close();
-            return bitmap;
+            final CreativeHttpClient.Response response =
+                CreativeFetcher.getInstance().fetch(url, cached, mTrace, mToken, mDeadline);
+            if (response.isNotModified()) {
+                cache.refreshCreative(mBitmapUrl);
+                return cached.getData();
+            }
+            cache.putCreative(mBitmapUrl, response.getBody(), response.getETag(), response.getLastModified());
+            return response.getBody();
         }
         catch (MalformedURLException e) {
-            Logger.logError(this, "URL is malformed: " + e.getMessage());
+            Logger.logError(this, "URL is malformed: {}", e.getMessage());
         }
         catch (IOException e) {
-            Logger.logError(this, "IO exception during fetching bitmap: " + e.getMessage());
-        }
-        return null;
-    }
-
-    /**
-     * Class with improvement of slow connection bug for {@link FilterInputStream} (<a
-     * href="http://android-developers.blogspot.com/2010/07/multithreading-for-performance.html"
-     * >read here</a>).
-     */
-    private static class FlushedInputStream extends FilterInputStream {
-
-        /**
-         * Constructor.
-         * 
-         * @param inputStream {@link InputStream} input
-         */
-        FlushedInputStream(final InputStream inputStream) {
-            super(inputStream);
-        }
-
-        @Override
-        public long skip(final long n) throws IOException {
-            long totalBytesSkipped = 0L;
-            while (totalBytesSkipped < n) {
-                long bytesSkipped = in.skip(n - totalBytesSkipped);
-                if (bytesSkipped == 0L) {
-                    int byteRed = read();
-                    if (byteRed < 0) {
-                        break; // we reached EOF
-                    }
-                    bytesSkipped = 1; // we read one byte
-                }
-                totalBytesSkipped += bytesSkipped;
+            if (mToken.isCancelled()) {
+                Logger.logDebug(this, "Fetch of {} cancelled", mBitmapUrl);
+            } else {
+                Logger.logError(this, "IO exception during fetching bitmap: {}", e.getMessage());
             }
-            return totalBytesSkipped;
         }
+        return null;
     }
 }
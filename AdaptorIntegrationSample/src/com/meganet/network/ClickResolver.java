@@ -0,0 +1,273 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.meganet.pipeline.FetchPriority;
+import com.meganet.utils.Logger;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Resolves click-through redirect chains ahead of the click.
+ * <p>
+ * Once an ad is loaded its click url is followed in the background with HEAD requests until a non
+ * redirect response or a non HTTP location, and the final landing url is cached for the configured
+ * time. A click then opens the landing url right away while the click url itself is requested in
+ * the background, so the ad server still registers the click. HEAD requests let trackers tell the
+ * resolution apart from a real click.
+ */
+public final class ClickResolver {
+
+    /**
+     * A key for the time to live of resolved landing urls in milliseconds being passed in factory
+     * parameters.
+     */
+    public static final String CLICK_TTL = "clickTtl";
+
+    /**
+     * Default time to live of resolved landing urls (ten minutes).
+     */
+    private static final long DEFAULT_TTL = 10 * 60 * 1000L;
+
+    /**
+     * Maximum number of redirects followed.
+     */
+    private static final int MAX_REDIRECTS = 5;
+
+    /**
+     * Maximum number of cached landing urls.
+     */
+    private static final int MAX_ENTRIES = 32;
+
+    /**
+     * Connect and read timeout of the requests in milliseconds.
+     */
+    private static final int TIMEOUT = 5000;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final ClickResolver INSTANCE = new ClickResolver();
+
+    /**
+     * Click urls mapped to the resolved landing urls, the eldest entry goes first.
+     */
+    private final Map<String, Resolution> mResolved = new LinkedHashMap<String, Resolution>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Resolution> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+
+    };
+
+    /**
+     * Click urls being resolved at the moment.
+     */
+    private final Set<String> mPending = new HashSet<String>();
+
+    /**
+     * Time to live of resolved landing urls in milliseconds.
+     */
+    private volatile long mTtl = DEFAULT_TTL;
+
+    /**
+     * Resolved landing url.
+     */
+    private static class Resolution {
+
+        /**
+         * Final url of the redirect chain.
+         */
+        final String mLandingUrl;
+
+        /**
+         * {@link System#currentTimeMillis()} after which the url should be resolved again.
+         */
+        final long mExpiresAt;
+
+        /**
+         * Constructs new instance.
+         */
+        Resolution(final String landingUrl, final long expiresAt) {
+            mLandingUrl = landingUrl;
+            mExpiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private ClickResolver() {
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static ClickResolver getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies the time to live from the factory initialization parameters.
+     */
+    public void configure(final Map<String, ?> params) {
+        mTtl = ParameterUtils.getLong(params, CLICK_TTL, DEFAULT_TTL);
+    }
+
+    /**
+     * Starts resolving the click url in the background unless it is resolved or being resolved.
+     */
+    public void resolve(final String clickUrl) {
+        synchronized (this) {
+            final Resolution resolution = mResolved.get(clickUrl);
+            if (resolution != null && resolution.mExpiresAt > System.currentTimeMillis() || !mPending.add(clickUrl)) {
+                return;
+            }
+        }
+        try {
+            CreativeExecutor.getInstance().submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    String landingUrl = null;
+                    try {
+                        landingUrl = followRedirects(clickUrl);
+                    }
+                    catch (final IOException e) {
+                        Logger.logWarning(ClickResolver.this, "Could not resolve click url: {}", e.getMessage());
+                    }
+                    synchronized (ClickResolver.this) {
+                        mPending.remove(clickUrl);
+                        if (landingUrl != null) {
+                            mResolved.put(clickUrl, new Resolution(landingUrl, System.currentTimeMillis() + mTtl));
+                        }
+                    }
+                }
+
+            }, FetchPriority.PRECACHE);
+        }
+        catch (final RejectedExecutionException e) {
+            synchronized (this) {
+                mPending.remove(clickUrl);
+            }
+        }
+    }
+
+    /**
+     * Returns the resolved landing url or null if the click url is not resolved yet or the
+     * resolution has expired.
+     */
+    public synchronized String getLandingUrl(final String clickUrl) {
+        final Resolution resolution = mResolved.get(clickUrl);
+        if (resolution == null || resolution.mExpiresAt <= System.currentTimeMillis()) {
+            return null;
+        }
+        return resolution.mLandingUrl;
+    }
+
+    /**
+     * Reports the click by requesting the click url in the background without following redirects.
+     */
+    public void track(final String clickUrl) {
+        try {
+            CreativeExecutor.getInstance().submit(new Runnable() {
+
+                @Override
+                public void run() {
+                    HttpURLConnection connection = null;
+                    try {
+                        connection = request(clickUrl, "GET");
+                        final int code = connection.getResponseCode();
+                        Logger.logDebug(ClickResolver.this, "Click tracked with code {}", Integer.valueOf(code));
+                    }
+                    catch (final IOException e) {
+                        Logger.logWarning(ClickResolver.this, "Could not track click: {}", e.getMessage());
+                    }
+                    finally {
+                        if (connection != null) {
+                            connection.disconnect();
+                        }
+                    }
+                }
+
+            }, FetchPriority.IMMEDIATE);
+        }
+        catch (final RejectedExecutionException e) {
+            Logger.logWarning(this, "Click tracking rejected: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Follows the redirect chain and returns the final url.
+     */
+    static String followRedirects(final String clickUrl) throws IOException {
+        String url = clickUrl;
+        for (int i = 0; i < MAX_REDIRECTS; i++) {
+            if (!url.startsWith("http://") && !url.startsWith("https://")) {
+                // e.g. a market:// link handled by another application
+                return url;
+            }
+            final HttpURLConnection connection = request(url, "HEAD");
+            final int code;
+            final String location;
+            try {
+                code = connection.getResponseCode();
+                location = connection.getHeaderField("Location");
+            }
+            finally {
+                connection.disconnect();
+            }
+            if (code < HttpURLConnection.HTTP_MULT_CHOICE || code >= HttpURLConnection.HTTP_BAD_REQUEST
+                || location == null) {
+                return url;
+            }
+            try {
+                url = new URL(new URL(url), location).toString();
+            }
+            catch (final MalformedURLException e) {
+                // a scheme unknown to java.net, e.g. market://
+                return location;
+            }
+        }
+        return url;
+    }
+
+    /**
+     * Opens a connection to the url which does not follow redirects.
+     */
+    private static HttpURLConnection request(final String url, final String method) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+        connection.setInstanceFollowRedirects(false);
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestMethod(method);
+        return connection;
+    }
+
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Build;
+
+import com.meganet.pipeline.FetchPriority;
+import com.meganet.pipeline.PrioritizedExecutor;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Bounded thread pool owned by the adaptor library which runs creative fetches.
+ * <p>
+ * Android flavour of {@link PrioritizedExecutor}: fetch threads run with background priority.
+ * Pending fetches are ordered by {@link FetchPriority}, fetches submitted while the queue is full are
+ * rejected with {@link RejectedExecutionException}.
+ */
+public final class CreativeExecutor {
+
+    /**
+     * A key for the number of fetch threads being passed in factory parameters.
+     */
+    public static final String FETCH_POOL_SIZE = "fetchPoolSize";
+
+    /**
+     * A key for the maximum number of pending fetches being passed in factory parameters.
+     */
+    public static final String FETCH_QUEUE_DEPTH = "fetchQueueDepth";
+
+    /**
+     * Default number of fetch threads.
+     */
+    private static final int DEFAULT_POOL_SIZE = 2;
+
+    /**
+     * Default maximum number of pending fetches.
+     */
+    private static final int DEFAULT_QUEUE_DEPTH = 16;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final CreativeExecutor INSTANCE = new CreativeExecutor();
+
+    /**
+     * Underlying pool.
+     */
+    private final PrioritizedExecutor mExecutor;
+
+    /**
+     * Creates low priority daemon threads.
+     */
+    public static class FetchThreadFactory implements ThreadFactory {
+
+        /**
+         * Thread counter.
+         */
+        private final AtomicInteger mCount = new AtomicInteger();
+
+        /**
+         * Thread name prefix.
+         */
+        private final String mName;
+
+        /**
+         * Constructs new instance.
+         */
+        public FetchThreadFactory(final String name) {
+            mName = name;
+        }
+
+        @Override
+        public Thread newThread(final Runnable runnable) {
+            final Thread thread = new Thread(new Runnable() {
+
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+
+            }, mName + " #" + mCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private CreativeExecutor() {
+        mExecutor =
+            new PrioritizedExecutor(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_DEPTH, new FetchThreadFactory("Meganet fetch"));
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
+            mExecutor.allowCoreThreadTimeOut();
+        }
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static CreativeExecutor getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies pool size and queue depth from the factory initialization parameters.
+     */
+    public void configure(final Map<String, ?> params) {
+        final int poolSize = Math.max(1, ParameterUtils.getInt(params, FETCH_POOL_SIZE, DEFAULT_POOL_SIZE));
+        final int queueDepth = Math.max(1, ParameterUtils.getInt(params, FETCH_QUEUE_DEPTH, DEFAULT_QUEUE_DEPTH));
+        mExecutor.setLimits(poolSize, queueDepth);
+    }
+
+    /**
+     * Returns an {@link Executor} which submits runnables to the pool with the specified priority.
+     */
+    public Executor withPriority(final FetchPriority priority) {
+        return mExecutor.withPriority(priority);
+    }
+
+    /**
+     * Moves a pending runnable to the specified priority if it is waiting with a lower one.
+     * 
+     * @return true if the runnable was requeued
+     */
+    public boolean raisePriority(final Runnable runnable, final FetchPriority priority) {
+        return mExecutor.raisePriority(runnable, priority);
+    }
+
+    /**
+     * Submits the runnable with the specified priority.
+     * 
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public void submit(final Runnable runnable, final FetchPriority priority) {
+        mExecutor.submit(runnable, priority);
+    }
+
+}
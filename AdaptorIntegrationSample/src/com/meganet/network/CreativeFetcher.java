@@ -0,0 +1,356 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.metrics.FetchTrace;
+import com.meganet.metrics.LatencyHistogram;
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CancellationToken;
+import com.meganet.pipeline.RetryPolicy;
+import com.meganet.utils.Logger;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * Fetch policy on top of {@link CreativeHttpClient}.
+ * <p>
+ * Every fetch has a total deadline. Retryable errors (I/O failures, timeouts, server errors and
+ * throttling) are retried with jittered backoff as long as the retry can start before the deadline.
+ * <p>
+ * Optionally a second, hedged request is started once the first one has been running longer than
+ * the configured percentile of the recent request latencies. The first response wins, the other
+ * request is cancelled. Hedging starts only after enough latencies have been recorded. Hedged requests
+ * run on a small bounded pool; if it is exhausted the fetch falls back to a single request.
+ */
+public final class CreativeFetcher {
+
+    /**
+     * A key for the total fetch deadline in milliseconds being passed in factory parameters.
+     */
+    public static final String TRANSACTION_DEADLINE = "transactionDeadline";
+
+    /**
+     * A key for the maximum number of retries being passed in factory parameters.
+     */
+    public static final String FETCH_RETRIES = "fetchRetries";
+
+    /**
+     * A key for the backoff cap of the first retry in milliseconds being passed in factory parameters.
+     */
+    public static final String RETRY_BACKOFF = "retryBackoff";
+
+    /**
+     * A key for the latency percentile (1-99) after which a hedged request is started being passed in
+     * factory parameters. Zero disables hedging.
+     */
+    public static final String HEDGE_PERCENTILE = "hedgePercentile";
+
+    /**
+     * A key for the maximum number of threads running hedged requests being passed in factory parameters.
+     */
+    public static final String HEDGE_POOL_SIZE = "hedgePoolSize";
+
+    /**
+     * Default total fetch deadline in milliseconds.
+     */
+    private static final int DEFAULT_DEADLINE = 20000;
+
+    /**
+     * Default maximum number of retries.
+     */
+    private static final int DEFAULT_RETRIES = 2;
+
+    /**
+     * Default backoff cap of the first retry in milliseconds.
+     */
+    private static final int DEFAULT_BACKOFF = 250;
+
+    /**
+     * Backoff cap of any retry in milliseconds.
+     */
+    private static final int MAX_BACKOFF = 4000;
+
+    /**
+     * Number of recorded latencies required before hedging.
+     */
+    private static final int MIN_HEDGE_SAMPLES = 20;
+
+    /**
+     * Default maximum number of threads running hedged requests, enough for two requests of each of the
+     * default number of concurrent fetches.
+     */
+    private static final int DEFAULT_HEDGE_POOL_SIZE = 4;
+
+    /**
+     * Seconds an idle hedge thread is kept.
+     */
+    private static final long HEDGE_KEEP_ALIVE = 30;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final CreativeFetcher INSTANCE = new CreativeFetcher();
+
+    /**
+     * Latencies of successful requests in microseconds.
+     */
+    private final LatencyHistogram mLatency = new LatencyHistogram();
+
+    /**
+     * Runs requests of hedged fetches. Requests are handed over directly, a request is rejected if all
+     * threads are busy.
+     */
+    private final ThreadPoolExecutor mHedgeExecutor = new ThreadPoolExecutor(0, DEFAULT_HEDGE_POOL_SIZE,
+        HEDGE_KEEP_ALIVE, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+        new CreativeExecutor.FetchThreadFactory("Meganet hedge"));
+
+    /**
+     * Total fetch deadline in milliseconds.
+     */
+    private volatile int mDeadline = DEFAULT_DEADLINE;
+
+    /**
+     * Retry policy.
+     */
+    private volatile RetryPolicy mRetryPolicy = new RetryPolicy(DEFAULT_RETRIES, DEFAULT_BACKOFF, MAX_BACKOFF);
+
+    /**
+     * Latency percentile after which a hedged request is started or zero if hedging is disabled.
+     */
+    private volatile int mHedgePercentile;
+
+    /**
+     * A single request of a hedged fetch.
+     */
+    private static class Attempt implements Callable<CreativeHttpClient.Response> {
+
+        /**
+         * Cancels this request only.
+         */
+        final CancellationToken mToken = new CancellationToken();
+
+        /**
+         * Phase timings of this request.
+         */
+        final FetchTrace mTrace = new FetchTrace();
+
+        /**
+         * Url of the creative.
+         */
+        private final String mUrl;
+
+        /**
+         * Cached copy of the creative to revalidate or null.
+         */
+        private final CachedCreative mCached;
+
+        /**
+         * {@link System#currentTimeMillis()} by which the fetch must be complete.
+         */
+        private final long mDeadline;
+
+        /**
+         * Constructs new instance.
+         */
+        Attempt(final String url, final CachedCreative cached, final long deadline) {
+            mUrl = url;
+            mCached = cached;
+            mDeadline = deadline;
+        }
+
+        @Override
+        public CreativeHttpClient.Response call() throws IOException {
+            return CreativeHttpClient.getInstance().get(mUrl, mCached, mTrace, mToken, mDeadline);
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private CreativeFetcher() {
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static CreativeFetcher getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies deadline, retry and hedging settings from the factory initialization parameters.
+     */
+    public void configure(final Map<String, ?> params) {
+        mDeadline = ParameterUtils.getInt(params, TRANSACTION_DEADLINE, DEFAULT_DEADLINE);
+        final int retries = ParameterUtils.getInt(params, FETCH_RETRIES, DEFAULT_RETRIES);
+        final int backoff = ParameterUtils.getInt(params, RETRY_BACKOFF, DEFAULT_BACKOFF);
+        mRetryPolicy = new RetryPolicy(retries, backoff, Math.max(backoff, MAX_BACKOFF));
+        final int percentile = ParameterUtils.getInt(params, HEDGE_PERCENTILE, 0);
+        mHedgePercentile = percentile > 0 && percentile < 100 ? percentile : 0;
+        mHedgeExecutor.setMaximumPoolSize(Math.max(1,
+            ParameterUtils.getInt(params, HEDGE_POOL_SIZE, DEFAULT_HEDGE_POOL_SIZE)));
+    }
+
+    /**
+     * Returns {@link System#currentTimeMillis()} by which a fetch starting now must be complete.
+     */
+    public long getDeadline() {
+        return System.currentTimeMillis() + mDeadline;
+    }
+
+    /**
+     * Fetches the creative retrying and hedging requests as configured.
+     * 
+     * @param url url of the creative
+     * @param cached cached copy of the creative to revalidate or null
+     * @param trace receives phase timings of the successful request
+     * @param token cancels the fetch
+     * @param deadline {@link System#currentTimeMillis()} by which the fetch must be complete
+     * @return response, never null
+     * @throws IOException if the creative could not be fetched before the deadline
+     */
+    public CreativeHttpClient.Response fetch(final String url, final CachedCreative cached, final FetchTrace trace,
+        final CancellationToken token, final long deadline) throws IOException {
+        final RetryPolicy policy = mRetryPolicy;
+        for (int retry = 0;; retry++) {
+            final long start = System.nanoTime();
+            try {
+                final CreativeHttpClient.Response response = request(url, cached, trace, token, deadline);
+                mLatency.record((System.nanoTime() - start) / 1000);
+                return response;
+            }
+            catch (final IOException e) {
+                final long backoff = policy.getBackoff(retry);
+                if (token.isCancelled() || !isRetryable(e) || !policy.canRetry(retry, backoff, deadline)) {
+                    throw e;
+                }
+                Logger.logDebug(this, "Retrying {} in {}ms", url, backoff);
+                AdaptorMetrics.getInstance().increment(Counter.RETRIES);
+                token.sleep(backoff);
+            }
+        }
+    }
+
+    /**
+     * Runs a single request, hedged if enough latencies are known and a hedge thread is free.
+     */
+    private CreativeHttpClient.Response request(final String url, final CachedCreative cached,
+        final FetchTrace trace, final CancellationToken token, final long deadline) throws IOException {
+        final int percentile = mHedgePercentile;
+        if (percentile == 0 || mLatency.getCount() < MIN_HEDGE_SAMPLES) {
+            return CreativeHttpClient.getInstance().get(url, cached, trace, token, deadline);
+        }
+        final long hedgeDelay = mLatency.getPercentile(percentile) / 1000;
+        final Attempt first = new Attempt(url, cached, deadline);
+        final Attempt second = new Attempt(url, cached, deadline);
+        token.setCancelAction(new Runnable() {
+
+            @Override
+            public void run() {
+                first.mToken.cancel();
+                second.mToken.cancel();
+            }
+
+        });
+        try {
+            final CompletionService<CreativeHttpClient.Response> service =
+                new ExecutorCompletionService<CreativeHttpClient.Response>(mHedgeExecutor);
+            final Future<CreativeHttpClient.Response> firstFuture;
+            try {
+                firstFuture = service.submit(first);
+            }
+            catch (final RejectedExecutionException e) {
+                // all hedge threads are busy, run the request on this thread
+                final CreativeHttpClient.Response response = first.call();
+                trace.add(first.mTrace);
+                return response;
+            }
+            int pending = 1;
+            Future<CreativeHttpClient.Response> done = service.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null && !token.isCancelled()) {
+                try {
+                    service.submit(second);
+                    AdaptorMetrics.getInstance().increment(Counter.HEDGED_REQUESTS);
+                    pending++;
+                }
+                catch (final RejectedExecutionException e) {
+                    Logger.logDebug(this, "No hedge thread free for {}", url);
+                }
+            }
+            IOException error = null;
+            while (pending > 0) {
+                if (done == null) {
+                    done = service.poll(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                    if (done == null) {
+                        throw new SocketTimeoutException("Fetch deadline has passed.");
+                    }
+                }
+                pending--;
+                final Attempt attempt = done == firstFuture ? first : second;
+                try {
+                    final CreativeHttpClient.Response response = done.get();
+                    trace.add(attempt.mTrace);
+                    if (attempt == second) {
+                        AdaptorMetrics.getInstance().increment(Counter.HEDGE_WINS);
+                    }
+                    return response;
+                }
+                catch (final ExecutionException e) {
+                    error = e.getCause() instanceof IOException ? (IOException)e.getCause() : new IOException(
+                        e.getCause());
+                }
+                done = null;
+            }
+            throw error;
+        }
+        catch (final InterruptedException e) {
+            throw new InterruptedIOException("Fetch interrupted.");
+        }
+        finally {
+            token.clearCancelAction();
+            // the loser or both requests on failure
+            first.mToken.cancel();
+            second.mToken.cancel();
+        }
+    }
+
+    /**
+     * Specifies whether the request may succeed if repeated.
+     */
+    private static boolean isRetryable(final IOException e) {
+        if (e instanceof CreativeHttpClient.StatusException) {
+            return ((CreativeHttpClient.StatusException)e).isRetryable();
+        }
+        return !(e instanceof MalformedURLException);
+    }
+
+}
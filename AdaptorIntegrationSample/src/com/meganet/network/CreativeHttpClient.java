@@ -0,0 +1,379 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import android.os.Build;
+
+import com.meganet.metrics.AdaptorMetrics;
+import com.meganet.metrics.Counter;
+import com.meganet.metrics.FetchTrace;
+import com.meganet.metrics.Phase;
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CancellationToken;
+import com.meganet.pipeline.StreamReader;
+import com.meganet.pipeline.ThroughputEstimator;
+import com.meganet.utils.ParameterUtils;
+
+/**
+ * HTTP transport for creative downloads.
+ * <p>
+ * Every request has connect and read timeouts and a total deadline which also covers the download of
+ * the body. Cached creatives are revalidated with conditional requests, gzip encoded responses are
+ * accepted. Connections are kept alive and reused per host by the platform connection pool, so the
+ * response stream is always read to the end and closed and the connection is disconnected only on
+ * errors.
+ * <p>
+ * Connection, time to the first byte and the download are timed separately into the
+ * {@link FetchTrace} of the request. Host names are resolved by the connection itself, so the
+ * resolution is bounded by the connect timeout, stopped by cancellation and skipped when a proxy is
+ * used.
+ * <p>
+ * Apart from the platform version the class does not depend on Android APIs, so it is tested on the
+ * JVM against a local HTTP server.
+ */
+public final class CreativeHttpClient {
+
+    /**
+     * A key for the connect timeout in milliseconds being passed in factory parameters.
+     */
+    public static final String CONNECT_TIMEOUT = "connectTimeout";
+
+    /**
+     * A key for the read timeout in milliseconds being passed in factory parameters.
+     */
+    public static final String READ_TIMEOUT = "readTimeout";
+
+    /**
+     * A key for the total request deadline in milliseconds being passed in factory parameters.
+     */
+    public static final String FETCH_DEADLINE = "fetchDeadline";
+
+    /**
+     * Default connect timeout in milliseconds.
+     */
+    private static final int DEFAULT_CONNECT_TIMEOUT = 5000;
+
+    /**
+     * Default read timeout in milliseconds.
+     */
+    private static final int DEFAULT_READ_TIMEOUT = 5000;
+
+    /**
+     * Default total request deadline in milliseconds.
+     */
+    private static final int DEFAULT_DEADLINE = 15000;
+
+    /**
+     * API level which decodes all WebP flavors including lossless and alpha (Jelly Bean MR2).
+     */
+    private static final int WEBP_SDK = 18;
+
+    /**
+     * Value of the Accept request header. WebP is advertised only where the platform decodes it
+     * fully, so the server can send smaller payloads.
+     */
+    private static final String ACCEPT =
+        Build.VERSION.SDK_INT >= WEBP_SDK ? "image/webp,image/*;q=0.8" : "image/png,image/jpeg,image/*;q=0.8";
+
+    /**
+     * HTTP 429, not defined in {@link HttpURLConnection}.
+     */
+    private static final int TOO_MANY_REQUESTS = 429;
+
+    /**
+     * Single instance shared by all adaptors.
+     */
+    private static final CreativeHttpClient INSTANCE = new CreativeHttpClient();
+
+    /**
+     * Connect timeout in milliseconds.
+     */
+    private volatile int mConnectTimeout = DEFAULT_CONNECT_TIMEOUT;
+
+    /**
+     * Read timeout in milliseconds.
+     */
+    private volatile int mReadTimeout = DEFAULT_READ_TIMEOUT;
+
+    /**
+     * Total request deadline in milliseconds.
+     */
+    private volatile int mDeadline = DEFAULT_DEADLINE;
+
+    /**
+     * Throughput estimate from recent downloads.
+     */
+    private final ThroughputEstimator mThroughput = new ThroughputEstimator();
+
+    /**
+     * Result of a creative request.
+     */
+    public static class Response {
+
+        /**
+         * Response body or null if the cached creative is still valid.
+         */
+        private final byte[] mBody;
+
+        /**
+         * Value of the ETag response header or null.
+         */
+        private final String mETag;
+
+        /**
+         * Value of the Last-Modified response header or null.
+         */
+        private final String mLastModified;
+
+        /**
+         * Constructs new instance.
+         */
+        Response(final byte[] body, final String eTag, final String lastModified) {
+            mBody = body;
+            mETag = eTag;
+            mLastModified = lastModified;
+        }
+
+        /**
+         * Specifies whether the server confirmed that the cached creative is still valid.
+         */
+        public boolean isNotModified() {
+            return mBody == null;
+        }
+
+        /**
+         * Returns response body or null if the cached creative is still valid.
+         */
+        public byte[] getBody() {
+            return mBody;
+        }
+
+        /**
+         * Returns value of the ETag response header or null.
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * Returns value of the Last-Modified response header or null.
+         */
+        public String getLastModified() {
+            return mLastModified;
+        }
+    }
+
+    /**
+     * Unexpected HTTP response code.
+     */
+    public static class StatusException extends IOException {
+
+        /**
+         * Serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * HTTP response code.
+         */
+        private final int mCode;
+
+        /**
+         * Constructs new instance.
+         */
+        StatusException(final int code, final String url) {
+            super("Unexpected response code " + code + " for " + url);
+            mCode = code;
+        }
+
+        /**
+         * Returns HTTP response code.
+         */
+        public int getResponseCode() {
+            return mCode;
+        }
+
+        /**
+         * Specifies whether the server may succeed if asked again, i.e. on server errors, request
+         * timeouts and throttling.
+         */
+        public boolean isRetryable() {
+            return mCode >= HttpURLConnection.HTTP_INTERNAL_ERROR || mCode == HttpURLConnection.HTTP_CLIENT_TIMEOUT
+                || mCode == TOO_MANY_REQUESTS;
+        }
+    }
+
+    /**
+     * Non constructable outside.
+     */
+    private CreativeHttpClient() {
+    }
+
+    /**
+     * Returns the shared instance.
+     */
+    public static CreativeHttpClient getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Applies timeouts from the factory initialization parameters.
+     */
+    public void configure(final Map<String, ?> params) {
+        mConnectTimeout = ParameterUtils.getInt(params, CONNECT_TIMEOUT, DEFAULT_CONNECT_TIMEOUT);
+        mReadTimeout = ParameterUtils.getInt(params, READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
+        mDeadline = ParameterUtils.getInt(params, FETCH_DEADLINE, DEFAULT_DEADLINE);
+    }
+
+    /**
+     * Returns throughput estimate from recent downloads.
+     */
+    public ThroughputEstimator getThroughputEstimator() {
+        return mThroughput;
+    }
+
+    /**
+     * Requests the creative.
+     * 
+     * @param creativeUrl url of the creative
+     * @param cached cached copy of the creative to revalidate or null
+     * @param trace receives phase timings
+     * @param token cancels the request by closing its connection
+     * @param fetchDeadline {@link System#currentTimeMillis()} by which the whole fetch must be complete,
+     *            the request deadline is never later than that
+     * @return response, never null
+     * @throws StatusException if the server responded with an unexpected code
+     * @throws IOException if the creative could not be fetched in time
+     */
+    public Response get(final String creativeUrl, final CachedCreative cached, final FetchTrace trace,
+        final CancellationToken token, final long fetchDeadline) throws IOException {
+        final long deadline = Math.min(System.currentTimeMillis() + mDeadline, fetchDeadline);
+        final int timeLeft = (int)(deadline - System.currentTimeMillis());
+        if (timeLeft <= 0) {
+            throw new SocketTimeoutException("Fetch deadline has passed.");
+        }
+        final URL url = new URL(creativeUrl);
+        final long requested = System.nanoTime();
+        long start = requested;
+        token.throwIfCancelled();
+        final HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        boolean isReusable = false;
+        // closing the socket is the only way to unblock a read in progress
+        token.setCancelAction(new Runnable() {
+
+            @Override
+            public void run() {
+                connection.disconnect();
+            }
+
+        });
+        try {
+            connection.setConnectTimeout(Math.min(mConnectTimeout, timeLeft));
+            connection.setReadTimeout(Math.min(mReadTimeout, timeLeft));
+            connection.setUseCaches(false);
+            connection.setRequestProperty("Accept-Encoding", "gzip");
+            connection.setRequestProperty("Accept", ACCEPT);
+            if (cached != null && cached.getETag() != null) {
+                connection.setRequestProperty("If-None-Match", cached.getETag());
+            }
+            if (cached != null && cached.getLastModified() != null) {
+                connection.setRequestProperty("If-Modified-Since", cached.getLastModified());
+            }
+
+            connection.connect();
+            start = trace.mark(Phase.CONNECT, start);
+            final int code = connection.getResponseCode();
+            start = trace.mark(Phase.FIRST_BYTE, start);
+            final long firstByte = start;
+            final Response response;
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                drain(connection.getInputStream(), deadline);
+                response = new Response(null, cached.getETag(), cached.getLastModified());
+                AdaptorMetrics.getInstance().increment(Counter.NOT_MODIFIED);
+            } else if (code == HttpURLConnection.HTTP_OK) {
+                final byte[] body = readBody(connection, deadline, token);
+                response = new Response(body, connection.getHeaderField("ETag"),
+                    connection.getHeaderField("Last-Modified"));
+                AdaptorMetrics.getInstance().increment(Counter.DOWNLOADS);
+                mThroughput.record(body.length, System.nanoTime() - firstByte, firstByte - requested);
+            } else {
+                throw new StatusException(code, creativeUrl);
+            }
+            trace.mark(Phase.DOWNLOAD, start);
+            isReusable = true;
+            return response;
+        }
+        finally {
+            token.clearCancelAction();
+            if (!isReusable && !token.isCancelled()) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads the whole response body decoding it if necessary. Bytes left unread because of
+     * cancellation are counted if the body is not compressed and its length is known.
+     */
+    private static byte[] readBody(final HttpURLConnection connection, final long deadline,
+        final CancellationToken token) throws IOException {
+        final int length = connection.getContentLength();
+        InputStream in = connection.getInputStream();
+        final boolean isCompressed = "gzip".equalsIgnoreCase(connection.getContentEncoding());
+        try {
+            if (isCompressed) {
+                in = new GZIPInputStream(in);
+            }
+            token.throwIfCancelled();
+            final byte[] body = StreamReader.readFully(in, length, deadline, token);
+            // compressed size is known only from the header
+            AdaptorMetrics.getInstance().add(Counter.BYTES_TRANSFERRED,
+                length > 0 && isCompressed ? length : body.length);
+            return body;
+        }
+        catch (final InterruptedIOException e) {
+            if (token.isCancelled() && length > 0 && !isCompressed) {
+                AdaptorMetrics.getInstance().add(Counter.BYTES_SAVED_BY_CANCEL, length - e.bytesTransferred);
+            }
+            throw e;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the stream to the end, so the connection can be reused.
+     */
+    private static void drain(final InputStream in, final long deadline) throws IOException {
+        try {
+            StreamReader.drain(in, deadline);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+}
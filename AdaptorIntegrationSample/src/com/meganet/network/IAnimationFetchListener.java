@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import android.graphics.Bitmap;
+import android.graphics.Movie;
+
+/**
+ * Listener of a fetch which can play animated creatives. Listeners implementing only
+ * {@link IBitmapFetchListener} receive the first frame of an animated creative through
+ * {@link #imageLoaded(Bitmap)}.
+ */
+public interface IAnimationFetchListener extends IBitmapFetchListener {
+
+    /**
+     * Called instead of {@link #imageLoaded(Bitmap)} when the fetched creative is animated.
+     * 
+     * @param firstFrame decoded first frame, scaled as a static creative would be
+     * @param animation animation decoding its frames on demand
+     */
+    public void animationLoaded(Bitmap firstFrame, Movie animation);
+
+}
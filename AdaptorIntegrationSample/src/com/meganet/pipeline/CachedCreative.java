@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Raw creative bytes read from the disk cache together with their HTTP validators.
+ */
+public class CachedCreative {
+
+    /**
+     * Encoded creative.
+     */
+    private final byte[] mData;
+
+    /**
+     * Value of the ETag response header or null.
+     */
+    private final String mETag;
+
+    /**
+     * Value of the Last-Modified response header or null.
+     */
+    private final String mLastModified;
+
+    /**
+     * Specifies whether the entry outlived its time to live and should be revalidated.
+     */
+    private final boolean mIsExpired;
+
+    /**
+     * Specifies whether the expired entry may be served while it is revalidated in the background.
+     */
+    private final boolean mIsServableStale;
+
+    /**
+     * Constructs a new {@link CachedCreative} instance.
+     */
+    public CachedCreative(final byte[] data, final String eTag, final String lastModified, final boolean isExpired) {
+        this(data, eTag, lastModified, isExpired, false);
+    }
+
+    /**
+     * Constructs a new {@link CachedCreative} instance which may be served stale.
+     */
+    public CachedCreative(final byte[] data, final String eTag, final String lastModified, final boolean isExpired,
+        final boolean isServableStale) {
+        mData = data;
+        mETag = eTag;
+        mLastModified = lastModified;
+        mIsExpired = isExpired;
+        mIsServableStale = isServableStale;
+    }
+
+    /**
+     * Returns encoded creative.
+     */
+    public byte[] getData() {
+        return mData;
+    }
+
+    /**
+     * Returns value of the ETag response header or null.
+     */
+    public String getETag() {
+        return mETag;
+    }
+
+    /**
+     * Returns value of the Last-Modified response header or null.
+     */
+    public String getLastModified() {
+        return mLastModified;
+    }
+
+    /**
+     * Specifies whether the entry outlived its time to live and should be revalidated before use.
+     */
+    public boolean isExpired() {
+        return mIsExpired;
+    }
+
+    /**
+     * Specifies whether the expired entry may be served right away while it is revalidated in the
+     * background.
+     */
+    public boolean isServableStale() {
+        return mIsServableStale;
+    }
+
+    /**
+     * Specifies whether the entry can be revalidated with a conditional request.
+     */
+    public boolean hasValidators() {
+        return mETag != null || mLastModified != null;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Cooperative cancellation of a single fetch.
+ * <p>
+ * Stages check {@link #isCancelled()} between steps and register an action which aborts the blocking
+ * operation in progress, e.g. closes the connection or stops the decoder. The action is run on the
+ * thread calling {@link #cancel()}, or right away if the token is already cancelled.
+ */
+public class CancellationToken {
+
+    /**
+     * Specifies whether the fetch was cancelled.
+     */
+    private volatile boolean mIsCancelled;
+
+    /**
+     * Aborts the operation in progress. Null if there is none.
+     */
+    private Runnable mAction;
+
+    /**
+     * Cancels the fetch and runs the registered action.
+     */
+    public void cancel() {
+        final Runnable action;
+        synchronized (this) {
+            if (mIsCancelled) {
+                return;
+            }
+            mIsCancelled = true;
+            action = mAction;
+            mAction = null;
+            notifyAll();
+        }
+        if (action != null) {
+            action.run();
+        }
+    }
+
+    /**
+     * Specifies whether the fetch was cancelled.
+     */
+    public boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    /**
+     * Registers the action which aborts the operation in progress. Runs it right away if the token is
+     * already cancelled.
+     */
+    public void setCancelAction(final Runnable action) {
+        synchronized (this) {
+            if (!mIsCancelled) {
+                mAction = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Unregisters the action when the operation is over.
+     */
+    public synchronized void clearCancelAction() {
+        mAction = null;
+    }
+
+    /**
+     * Waits for the specified time unless the fetch is cancelled earlier.
+     * 
+     * @throws InterruptedIOException if the fetch was cancelled or the thread interrupted
+     */
+    public synchronized void sleep(final long millis) throws InterruptedIOException {
+        final long end = System.currentTimeMillis() + millis;
+        long left = millis;
+        try {
+            while (!mIsCancelled && left > 0) {
+                wait(left);
+                left = end - System.currentTimeMillis();
+            }
+        }
+        catch (final InterruptedException e) {
+            throw new InterruptedIOException("Wait interrupted.");
+        }
+        throwIfCancelled();
+    }
+
+    /**
+     * Throws {@link InterruptedIOException} if the fetch was cancelled.
+     */
+    public void throwIfCancelled() throws InterruptedIOException {
+        if (mIsCancelled) {
+            throw new InterruptedIOException("Fetch cancelled.");
+        }
+    }
+
+}
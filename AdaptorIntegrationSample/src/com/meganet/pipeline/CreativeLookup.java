@@ -0,0 +1,44 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Cache lookup stage for raw creatives.
+ */
+public interface CreativeLookup {
+
+    /**
+     * Returns raw creative for the url or null if it is not cached. Expired creative is returned only
+     * if it may be served stale or can be revalidated.
+     */
+    public CachedCreative getCreative(String url);
+
+    /**
+     * Caches raw creative for the url along with its HTTP validators.
+     */
+    public void putCreative(String url, byte[] data, String eTag, String lastModified);
+
+    /**
+     * Marks raw creative for the url as fresh after it was revalidated.
+     */
+    public void refreshCreative(String url);
+
+    /**
+     * Removes raw creative for the url, e.g. if it could not be decoded.
+     */
+    public void removeCreative(String url);
+
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One of the creative files offered by the server, authored for a display density and of a known
+ * size.
+ * <p>
+ * Variants are passed as <code>&lt;url&gt; &lt;density&gt; &lt;bytes&gt;</code> entries separated by
+ * <code>|</code>, e.g. <code>http://cdn/ad.jpg 1 12000|http://cdn/ad@2x.jpg 2 41000</code>. The
+ * density is the scale the creative is drawn for (1 for mdpi, 2 for xhdpi and so on); a lower
+ * quality file may be offered for the same density with a smaller size.
+ */
+public class CreativeVariant {
+
+    /**
+     * Url of the creative.
+     */
+    private final String mUrl;
+
+    /**
+     * Display density the creative is drawn for.
+     */
+    private final float mDensity;
+
+    /**
+     * Size of the file in bytes.
+     */
+    private final long mBytes;
+
+    /**
+     * Constructs new instance.
+     */
+    public CreativeVariant(final String url, final float density, final long bytes) {
+        mUrl = url;
+        mDensity = density;
+        mBytes = bytes;
+    }
+
+    /**
+     * Returns url of the creative.
+     */
+    public String getUrl() {
+        return mUrl;
+    }
+
+    /**
+     * Returns display density the creative is drawn for.
+     */
+    public float getDensity() {
+        return mDensity;
+    }
+
+    /**
+     * Returns size of the file in bytes.
+     */
+    public long getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Parses variants from the server parameter.
+     * 
+     * @param value server parameter
+     * @return variants in the order of the parameter, never null
+     * @throws IllegalArgumentException if an entry is malformed
+     */
+    public static List<CreativeVariant> parse(final String value) {
+        final List<CreativeVariant> variants = new ArrayList<CreativeVariant>();
+        for (final String entry : value.split("\\|")) {
+            final String trimmed = entry.trim();
+            if (trimmed.length() == 0) {
+                continue;
+            }
+            final String[] fields = trimmed.split("\\s+");
+            if (fields.length != 3) {
+                throw new IllegalArgumentException("Malformed creative variant '" + trimmed + "'.");
+            }
+            try {
+                final float density = Float.parseFloat(fields[1]);
+                final long bytes = Long.parseLong(fields[2]);
+                if (density <= 0 || bytes < 0) {
+                    throw new IllegalArgumentException("Malformed creative variant '" + trimmed + "'.");
+                }
+                variants.add(new CreativeVariant(fields[0], density, bytes));
+            }
+            catch (final NumberFormatException e) {
+                throw new IllegalArgumentException("Malformed creative variant '" + trimmed + "'.");
+            }
+        }
+        return variants;
+    }
+
+    @Override
+    public String toString() {
+        return mUrl + " " + mDensity + "x " + mBytes + "B";
+    }
+
+}
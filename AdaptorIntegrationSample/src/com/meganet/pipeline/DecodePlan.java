@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Sizing math of a creative decode.
+ * <p>
+ * For the source size and scale factor the plan gives the target size, the power of two sample size
+ * which keeps the sampled image not smaller than the target, and the density pair which makes the
+ * decoder scale the sampled image to the target in the same pass. A maximum size bounds the target,
+ * e.g. to the screen for a creative shown fit to the screen, so pixels which could never be seen are
+ * not decoded.
+ */
+public class DecodePlan {
+
+    /**
+     * Target width in pixels.
+     */
+    private final int mTargetWidth;
+
+    /**
+     * Target height in pixels.
+     */
+    private final int mTargetHeight;
+
+    /**
+     * Power of two sample size.
+     */
+    private final int mSampleSize;
+
+    /**
+     * Width of the image after sampling.
+     */
+    private final int mSampledWidth;
+
+    /**
+     * Constructs a new {@link DecodePlan} instance.
+     */
+    private DecodePlan(final int targetWidth, final int targetHeight, final int sampleSize, final int sampledWidth) {
+        mTargetWidth = targetWidth;
+        mTargetHeight = targetHeight;
+        mSampleSize = sampleSize;
+        mSampledWidth = sampledWidth;
+    }
+
+    /**
+     * Plans the decode of an image of the specified size scaled by the factor.
+     * 
+     * @return plan or null if the size is not valid
+     */
+    public static DecodePlan create(final int width, final int height, final float scale) {
+        return create(width, height, scale, 0);
+    }
+
+    /**
+     * Plans the decode of an image of the specified size scaled by the factor, but not larger than the
+     * maximum size in either dimension. The aspect ratio is kept.
+     * 
+     * @param maxSize maximum target width and height in pixels or 0 for no limit
+     * @return plan or null if the size is not valid
+     */
+    public static DecodePlan create(final int width, final int height, final float scale, final int maxSize) {
+        if (width <= 0 || height <= 0) {
+            return null;
+        }
+        float targetScale = scale;
+        if (maxSize > 0 && Math.max(width, height) * scale > maxSize) {
+            targetScale = (float)maxSize / Math.max(width, height);
+        }
+        final int targetWidth = Math.max(1, (int)(targetScale * width));
+        final int targetHeight = Math.max(1, (int)(targetScale * height));
+        final int sampleSize = calculateInSampleSize(width, height, targetWidth, targetHeight);
+        return new DecodePlan(targetWidth, targetHeight, sampleSize, width / sampleSize);
+    }
+
+    /**
+     * Returns the largest power of two sample size that keeps decoded image not smaller than the
+     * target size.
+     */
+    public static int calculateInSampleSize(final int width, final int height, final int targetWidth,
+        final int targetHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= targetWidth && height / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Returns target width in pixels.
+     */
+    public int getTargetWidth() {
+        return mTargetWidth;
+    }
+
+    /**
+     * Returns target height in pixels.
+     */
+    public int getTargetHeight() {
+        return mTargetHeight;
+    }
+
+    /**
+     * Returns power of two sample size.
+     */
+    public int getSampleSize() {
+        return mSampleSize;
+    }
+
+    /**
+     * Specifies whether the decoder should scale the sampled image.
+     */
+    public boolean isScaled() {
+        return mSampledWidth != mTargetWidth;
+    }
+
+    /**
+     * Returns the source density for the decoder, i.e. the sampled width.
+     */
+    public int getDensity() {
+        return mSampledWidth;
+    }
+
+    /**
+     * Returns the target density for the decoder, i.e. the target width.
+     */
+    public int getTargetDensity() {
+        return mTargetWidth;
+    }
+
+}
@@ -0,0 +1,33 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Trade-off between picture quality and memory when choosing the decoded bitmap format.
+ */
+public enum DecodePreference {
+
+    /**
+     * Full color with alpha, e.g. for interstitials which take the whole screen.
+     */
+    QUALITY,
+
+    /**
+     * Two bytes per pixel if the creative is opaque, e.g. for banners.
+     */
+    MEMORY
+
+}
@@ -0,0 +1,30 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Default {@link UrlNormalizer}: trims the url and escapes spaces, which are often left unescaped in
+ * urls typed into the dashboard.
+ */
+public class DefaultUrlNormalizer implements UrlNormalizer {
+
+    @Override
+    public String normalize(final String url) {
+        final String trimmed = url.trim();
+        return trimmed.indexOf(' ') < 0 ? trimmed : trimmed.replace(" ", "%20");
+    }
+
+}
@@ -0,0 +1,34 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Priority of a creative fetch in {@link PrioritizedExecutor}. Fetches with lower ordinal go first.
+ */
+public enum FetchPriority {
+
+    /**
+     * Creative that should be displayed as soon as it is fetched: a banner or an interstitial which is
+     * shown right away.
+     */
+    IMMEDIATE,
+
+    /**
+     * Creative that is precached for later display.
+     */
+    PRECACHE
+
+}
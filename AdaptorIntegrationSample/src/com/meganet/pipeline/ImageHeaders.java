@@ -0,0 +1,229 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Inspects encoded image headers without decoding the image.
+ */
+public class ImageHeaders {
+
+    /**
+     * PNG file signature.
+     */
+    private static final byte[] PNG_SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * PNG color type with an alpha channel: grayscale with alpha.
+     */
+    private static final int PNG_GRAY_ALPHA = 4;
+
+    /**
+     * PNG color type with an alpha channel: truecolor with alpha.
+     */
+    private static final int PNG_RGBA = 6;
+
+    /**
+     * Offset of the color type in a PNG file: signature, IHDR length and type, width and height, bit
+     * depth.
+     */
+    private static final int PNG_COLOR_TYPE_OFFSET = 25;
+
+    /**
+     * Offset of the first chunk after the signature in a PNG file.
+     */
+    private static final int PNG_CHUNKS_OFFSET = 8;
+
+    /**
+     * Offset of the first chunk in a WebP file after the RIFF header.
+     */
+    private static final int WEBP_CHUNK_OFFSET = 12;
+
+    /**
+     * Alpha flag in the extended WebP header.
+     */
+    private static final int WEBP_VP8X_ALPHA = 0x10;
+
+    /**
+     * Offset of the first block in a GIF file after the header and the logical screen descriptor.
+     */
+    private static final int GIF_BLOCKS_OFFSET = 13;
+
+    /**
+     * GIF image descriptor introducer.
+     */
+    private static final int GIF_IMAGE = 0x2C;
+
+    /**
+     * GIF extension introducer.
+     */
+    private static final int GIF_EXTENSION = 0x21;
+
+    /**
+     * Color table flag of the GIF logical screen and image descriptors.
+     */
+    private static final int GIF_COLOR_TABLE = 0x80;
+
+    /**
+     * Non constructable.
+     */
+    private ImageHeaders() {
+    }
+
+    /**
+     * Specifies whether the image is known to have no transparent pixels. JPEG images are always
+     * opaque; PNG and WebP images are opaque if their headers declare no alpha. Any other or damaged
+     * image is assumed to have alpha.
+     * 
+     * @param data encoded image
+     */
+    public static boolean isOpaque(final byte[] data) {
+        if (data.length > 2 && (data[0] & 0xFF) == 0xFF && (data[1] & 0xFF) == 0xD8) {
+            return true;
+        }
+        if (startsWith(data, 0, PNG_SIGNATURE)) {
+            return isOpaquePng(data);
+        }
+        if (startsWith(data, 0, "RIFF".getBytes()) && startsWith(data, 8, "WEBP".getBytes())) {
+            return isOpaqueWebP(data);
+        }
+        return false;
+    }
+
+    /**
+     * Specifies whether the image is a GIF of more than one frame. Frames are counted by walking the
+     * GIF blocks, no pixel data is decoded.
+     * 
+     * @param data encoded image
+     */
+    public static boolean isAnimatedGif(final byte[] data) {
+        if (!startsWith(data, 0, "GIF".getBytes()) || data.length < GIF_BLOCKS_OFFSET) {
+            return false;
+        }
+        int offset = GIF_BLOCKS_OFFSET + colorTableSize(data[10]);
+        int frames = 0;
+        while (offset < data.length) {
+            final int block = data[offset] & 0xFF;
+            if (block == GIF_IMAGE) {
+                if (++frames > 1) {
+                    return true;
+                }
+                if (offset + 10 > data.length) {
+                    return false;
+                }
+                // descriptor, local color table, LZW code size and image data
+                offset += 10 + colorTableSize(data[offset + 9]) + 1;
+                offset = skipSubBlocks(data, offset);
+            } else if (block == GIF_EXTENSION) {
+                offset = skipSubBlocks(data, offset + 2);
+            } else {
+                // trailer or damaged data
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns size of the color table declared by the GIF descriptor flags.
+     */
+    private static int colorTableSize(final byte flags) {
+        return (flags & GIF_COLOR_TABLE) != 0 ? 3 << ((flags & 7) + 1) : 0;
+    }
+
+    /**
+     * Returns offset after the GIF data sub-blocks starting at the offset.
+     */
+    private static int skipSubBlocks(final byte[] data, final int start) {
+        int offset = start;
+        while (offset < data.length) {
+            final int size = data[offset] & 0xFF;
+            offset += 1 + size;
+            if (size == 0) {
+                break;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * Checks the PNG color type and looks for a transparency chunk before the image data.
+     */
+    private static boolean isOpaquePng(final byte[] data) {
+        if (data.length <= PNG_COLOR_TYPE_OFFSET) {
+            return false;
+        }
+        final int colorType = data[PNG_COLOR_TYPE_OFFSET];
+        if (colorType == PNG_GRAY_ALPHA || colorType == PNG_RGBA) {
+            return false;
+        }
+        int offset = PNG_CHUNKS_OFFSET;
+        while (offset + 8 <= data.length) {
+            final int length = readInt(data, offset);
+            if (startsWith(data, offset + 4, "tRNS".getBytes())) {
+                return false;
+            }
+            if (startsWith(data, offset + 4, "IDAT".getBytes()) || length < 0) {
+                return true;
+            }
+            // length, type, data and CRC
+            offset += 12 + length;
+        }
+        return false;
+    }
+
+    /**
+     * Lossy WebP has no alpha unless it is declared in the extended header. Lossless WebP carries an
+     * alpha hint in its header.
+     */
+    private static boolean isOpaqueWebP(final byte[] data) {
+        final int chunk = WEBP_CHUNK_OFFSET;
+        if (startsWith(data, chunk, "VP8 ".getBytes())) {
+            return true;
+        }
+        if (startsWith(data, chunk, "VP8X".getBytes()) && data.length > chunk + 8) {
+            return (data[chunk + 8] & WEBP_VP8X_ALPHA) == 0;
+        }
+        if (startsWith(data, chunk, "VP8L".getBytes()) && data.length > chunk + 12) {
+            // signature byte, then 14 bits of width, 14 bits of height and the alpha bit
+            return (data[chunk + 12] & 0x10) == 0;
+        }
+        return false;
+    }
+
+    /**
+     * Specifies whether the data contains the prefix at the offset.
+     */
+    private static boolean startsWith(final byte[] data, final int offset, final byte[] prefix) {
+        if (data.length < offset + prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (data[offset + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a big endian integer.
+     */
+    private static int readInt(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8
+            | data[offset + 3] & 0xFF;
+    }
+
+}
@@ -0,0 +1,195 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Scheduling stage: bounded thread pool with a priority queue.
+ * <p>
+ * Pending tasks are ordered by {@link FetchPriority}, tasks of the same priority run in submission
+ * order. Tasks submitted while the queue is full are rejected with
+ * {@link RejectedExecutionException}. A pending task can be moved ahead with
+ * {@link #raisePriority(Runnable, FetchPriority)} when something more urgent starts waiting for it.
+ */
+public class PrioritizedExecutor {
+
+    /**
+     * Idle threads are stopped after this timeout in seconds.
+     */
+    private static final long KEEP_ALIVE = 30;
+
+    /**
+     * Pending tasks.
+     */
+    private final PriorityBlockingQueue<Runnable> mQueue = new PriorityBlockingQueue<Runnable>();
+
+    /**
+     * Underlying thread pool.
+     */
+    private final ThreadPoolExecutor mPool;
+
+    /**
+     * Submission counter used to keep FIFO order within the same priority.
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Maximum number of pending tasks.
+     */
+    private volatile int mQueueDepth;
+
+    /**
+     * Task wrapped with its priority.
+     */
+    private static class PrioritizedRunnable implements Runnable, Comparable<PrioritizedRunnable> {
+
+        /**
+         * Wrapped task.
+         */
+        private final Runnable mRunnable;
+
+        /**
+         * Priority of the task.
+         */
+        private final FetchPriority mPriority;
+
+        /**
+         * Submission order.
+         */
+        private final long mSequence;
+
+        /**
+         * Constructs new instance.
+         */
+        PrioritizedRunnable(final Runnable runnable, final FetchPriority priority, final long sequence) {
+            mRunnable = runnable;
+            mPriority = priority;
+            mSequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            mRunnable.run();
+        }
+
+        @Override
+        public int compareTo(final PrioritizedRunnable another) {
+            final int result = mPriority.compareTo(another.mPriority);
+            if (result != 0) {
+                return result;
+            }
+            return mSequence < another.mSequence ? -1 : (mSequence == another.mSequence ? 0 : 1);
+        }
+    }
+
+    /**
+     * Constructs a new {@link PrioritizedExecutor} instance.
+     * 
+     * @param poolSize number of threads
+     * @param queueDepth maximum number of pending tasks
+     * @param threadFactory creates pool threads
+     */
+    public PrioritizedExecutor(final int poolSize, final int queueDepth, final ThreadFactory threadFactory) {
+        mPool = new ThreadPoolExecutor(poolSize, poolSize, KEEP_ALIVE, TimeUnit.SECONDS, mQueue, threadFactory);
+        mQueueDepth = queueDepth;
+    }
+
+    /**
+     * Lets idle threads stop after the keep alive timeout.
+     */
+    public void allowCoreThreadTimeOut() {
+        mPool.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Changes the number of threads and the maximum number of pending tasks.
+     */
+    public synchronized void setLimits(final int poolSize, final int queueDepth) {
+        mQueueDepth = queueDepth;
+        if (poolSize > mPool.getMaximumPoolSize()) {
+            mPool.setMaximumPoolSize(poolSize);
+            mPool.setCorePoolSize(poolSize);
+        } else {
+            mPool.setCorePoolSize(poolSize);
+            mPool.setMaximumPoolSize(poolSize);
+        }
+    }
+
+    /**
+     * Returns an {@link Executor} which submits runnables with the specified priority.
+     */
+    public Executor withPriority(final FetchPriority priority) {
+        return new Executor() {
+
+            @Override
+            public void execute(final Runnable command) {
+                submit(command, priority);
+            }
+
+        };
+    }
+
+    /**
+     * Submits the runnable with the specified priority.
+     * 
+     * @throws RejectedExecutionException if the queue is full
+     */
+    public void submit(final Runnable runnable, final FetchPriority priority) {
+        if (mQueue.size() >= mQueueDepth) {
+            throw new RejectedExecutionException("Fetch queue is full.");
+        }
+        mPool.execute(new PrioritizedRunnable(runnable, priority, mSequence.getAndIncrement()));
+    }
+
+    /**
+     * Moves a pending runnable to the specified priority if it is waiting with a lower one. The
+     * runnable keeps its submission order, so it goes ahead of the runnables of the new priority
+     * submitted after it.
+     * 
+     * @return true if the runnable was requeued, false if it has started already, was not submitted
+     *         to this executor or its priority is not lower
+     */
+    public boolean raisePriority(final Runnable runnable, final FetchPriority priority) {
+        for (final Runnable pending : mQueue) {
+            final PrioritizedRunnable prioritized = (PrioritizedRunnable)pending;
+            if (prioritized.mRunnable != runnable) {
+                continue;
+            }
+            // a pool thread may have taken it in the meantime
+            if (prioritized.mPriority.compareTo(priority) <= 0 || !mQueue.remove(prioritized)) {
+                return false;
+            }
+            mPool.execute(new PrioritizedRunnable(runnable, priority, prioritized.mSequence));
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of pending tasks.
+     */
+    public int getQueueSize() {
+        return mQueue.size();
+    }
+
+}
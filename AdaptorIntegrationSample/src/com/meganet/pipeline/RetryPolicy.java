@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+import java.util.Random;
+
+/**
+ * Bounded retries with jittered exponential backoff.
+ * <p>
+ * The backoff before retry <i>n</i> is a random value between zero and
+ * <code>min(maxBackoff, baseBackoff * 2^n)</code>, so clients which failed together do not retry
+ * together. A retry is allowed only if it can start before the deadline.
+ */
+public class RetryPolicy {
+
+    /**
+     * Source of the jitter.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Maximum number of retries after the first attempt.
+     */
+    private final int mMaxRetries;
+
+    /**
+     * Backoff cap of the first retry in milliseconds.
+     */
+    private final long mBaseBackoff;
+
+    /**
+     * Backoff cap of any retry in milliseconds.
+     */
+    private final long mMaxBackoff;
+
+    /**
+     * Constructs new instance.
+     * 
+     * @param maxRetries maximum number of retries after the first attempt
+     * @param baseBackoff backoff cap of the first retry in milliseconds
+     * @param maxBackoff backoff cap of any retry in milliseconds
+     */
+    public RetryPolicy(final int maxRetries, final long baseBackoff, final long maxBackoff) {
+        mMaxRetries = Math.max(0, maxRetries);
+        mBaseBackoff = Math.max(1, baseBackoff);
+        mMaxBackoff = Math.max(mBaseBackoff, maxBackoff);
+    }
+
+    /**
+     * Returns maximum number of retries after the first attempt.
+     */
+    public int getMaxRetries() {
+        return mMaxRetries;
+    }
+
+    /**
+     * Returns randomized backoff before the retry.
+     * 
+     * @param retry zero based number of the retry
+     * @return backoff in milliseconds
+     */
+    public long getBackoff(final int retry) {
+        final long cap = Math.min(mMaxBackoff, mBaseBackoff << Math.min(retry, 20));
+        return (long)(mRandom.nextDouble() * cap);
+    }
+
+    /**
+     * Specifies whether the retry may start after the backoff without passing the deadline.
+     * 
+     * @param retry zero based number of the retry
+     * @param backoff backoff before the retry in milliseconds
+     * @param deadline {@link System#currentTimeMillis()} by which the fetch must be complete
+     */
+    public boolean canRetry(final int retry, final long backoff, final long deadline) {
+        return retry < mMaxRetries && System.currentTimeMillis() + backoff < deadline;
+    }
+
+}
@@ -0,0 +1,121 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+/**
+ * Reads network and file streams into memory.
+ * <p>
+ * Every read loop checks the deadline, so a slow stream can not hold the calling thread longer than
+ * a single read timeout past the deadline. Reads can also be cancelled with a
+ * {@link CancellationToken}; the token action is expected to close the stream source, so a blocked
+ * read fails right away.
+ */
+public final class StreamReader {
+
+    /**
+     * Deadline which never passes.
+     */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    /**
+     * Size of the buffer used to read streams.
+     */
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Non constructable.
+     */
+    private StreamReader() {
+    }
+
+    /**
+     * Reads the stream to the end. The stream is not closed.
+     * 
+     * @param in stream to read
+     * @param sizeHint expected number of bytes or a non-positive value if unknown
+     * @param deadline {@link System#currentTimeMillis()} after which reading is aborted
+     * @return read bytes
+     * @throws SocketTimeoutException if the deadline has passed
+     */
+    public static byte[] readFully(final InputStream in, final int sizeHint, final long deadline) throws IOException {
+        return readFully(in, sizeHint, deadline, null);
+    }
+
+    /**
+     * Reads the stream to the end unless cancelled. The stream is not closed.
+     * 
+     * @param in stream to read
+     * @param sizeHint expected number of bytes or a non-positive value if unknown
+     * @param deadline {@link System#currentTimeMillis()} after which reading is aborted
+     * @param token cancellation token or null
+     * @return read bytes
+     * @throws SocketTimeoutException if the deadline has passed
+     * @throws InterruptedIOException if the read was cancelled, its <code>bytesTransferred</code> is
+     *             the number of bytes read before that
+     */
+    public static byte[] readFully(final InputStream in, final int sizeHint, final long deadline,
+        final CancellationToken token) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(sizeHint > 0 ? sizeHint : BUFFER_SIZE);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                checkDeadline(deadline);
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+            }
+        }
+        catch (final IOException e) {
+            if (token == null || !token.isCancelled()) {
+                throw e;
+            }
+            final InterruptedIOException cancelled = new InterruptedIOException("Fetch cancelled.");
+            cancelled.bytesTransferred = out.size();
+            throw cancelled;
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Reads the stream to the end discarding the data. The stream is not closed.
+     * 
+     * @throws SocketTimeoutException if the deadline has passed
+     */
+    public static void drain(final InputStream in, final long deadline) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        while (in.read(buffer) != -1) {
+            checkDeadline(deadline);
+        }
+    }
+
+    /**
+     * Throws {@link SocketTimeoutException} if the deadline has passed.
+     */
+    public static void checkDeadline(final long deadline) throws SocketTimeoutException {
+        if (System.currentTimeMillis() > deadline) {
+            throw new SocketTimeoutException("Fetch deadline exceeded.");
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+/**
+ * Running estimate of the network throughput and time to first byte from recent downloads.
+ * <p>
+ * Both values are exponentially weighted moving averages, so the estimate follows the network when
+ * the device moves between Wi-Fi and cellular. Downloads too small to be limited by the bandwidth
+ * update the time to first byte only.
+ */
+public class ThroughputEstimator {
+
+    /**
+     * Weight of a new sample.
+     */
+    private static final double ALPHA = 0.3;
+
+    /**
+     * Minimum download size in bytes to sample the throughput.
+     */
+    private static final long MIN_SAMPLE_BYTES = 8 * 1024;
+
+    /**
+     * Estimated throughput in bytes per second or 0 if unknown.
+     */
+    private double mBytesPerSecond;
+
+    /**
+     * Estimated time to first byte in milliseconds or -1 if unknown.
+     */
+    private double mFirstByteMillis = -1;
+
+    /**
+     * Records a download.
+     * 
+     * @param bytes number of downloaded bytes
+     * @param downloadNanos time from the first to the last byte in nanoseconds
+     * @param firstByteNanos time from the request to the first byte in nanoseconds
+     */
+    public synchronized void record(final long bytes, final long downloadNanos, final long firstByteNanos) {
+        final double firstByteMillis = firstByteNanos / 1e6;
+        mFirstByteMillis = mFirstByteMillis < 0 ? firstByteMillis : mFirstByteMillis + ALPHA
+            * (firstByteMillis - mFirstByteMillis);
+        if (bytes < MIN_SAMPLE_BYTES || downloadNanos <= 0) {
+            return;
+        }
+        final double bytesPerSecond = bytes * 1e9 / downloadNanos;
+        mBytesPerSecond = mBytesPerSecond == 0 ? bytesPerSecond : mBytesPerSecond + ALPHA
+            * (bytesPerSecond - mBytesPerSecond);
+    }
+
+    /**
+     * Returns estimated throughput in bytes per second or 0 if unknown.
+     */
+    public synchronized long getBytesPerSecond() {
+        return (long)mBytesPerSecond;
+    }
+
+    /**
+     * Estimates time to fetch the specified number of bytes.
+     * 
+     * @return time in milliseconds or -1 if the throughput is unknown
+     */
+    public synchronized long estimateMillis(final long bytes) {
+        if (mBytesPerSecond == 0) {
+            return -1;
+        }
+        return (long)(Math.max(0, mFirstByteMillis) + bytes * 1000 / mBytesPerSecond);
+    }
+
+}
@@ -0,0 +1,80 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.pipeline;
+
+import java.util.List;
+
+/**
+ * Picks the creative variant which suits the display and can be fetched within the latency target.
+ * <p>
+ * The ideal variant is drawn for the device density, a variant for a higher density is only a waste
+ * of bytes. Among the variants which fit the latency target the one closest to the ideal density is
+ * taken, the larger file wins a tie as it is likely of a better quality. If none fits, the smallest
+ * file is taken. Without a throughput estimate the variant closest to the ideal density is taken.
+ */
+public class VariantSelector {
+
+    /**
+     * Non constructable.
+     */
+    private VariantSelector() {
+    }
+
+    /**
+     * Selects the variant.
+     * 
+     * @param variants variants offered by the server, not empty
+     * @param density display density of the device
+     * @param estimator throughput estimate
+     * @param latencyTarget time in milliseconds the fetch should fit into
+     * @return selected variant
+     */
+    public static CreativeVariant select(final List<CreativeVariant> variants, final float density,
+        final ThroughputEstimator estimator, final long latencyTarget) {
+        CreativeVariant best = null;
+        CreativeVariant smallest = null;
+        for (final CreativeVariant variant : variants) {
+            if (smallest == null || variant.getBytes() < smallest.getBytes()) {
+                smallest = variant;
+            }
+            final long estimate = estimator.estimateMillis(variant.getBytes());
+            if (estimate > latencyTarget) {
+                continue;
+            }
+            if (best == null || isBetter(variant, best, density)) {
+                best = variant;
+            }
+        }
+        return best != null ? best : smallest;
+    }
+
+    /**
+     * Compares variants which both fit the latency target.
+     */
+    private static boolean isBetter(final CreativeVariant variant, final CreativeVariant best, final float density) {
+        final float sharpness = Math.min(variant.getDensity(), density);
+        final float bestSharpness = Math.min(best.getDensity(), density);
+        if (sharpness != bestSharpness) {
+            return sharpness > bestSharpness;
+        }
+        // equally sharp on this display: skip needless pixels, then prefer quality
+        if (variant.getDensity() != best.getDensity()) {
+            return variant.getDensity() < best.getDensity();
+        }
+        return variant.getBytes() > best.getBytes();
+    }
+
+}
@@ -15,13 +15,25 @@
  *******************************************************************************/
 package com.meganet.utils;
 
+import java.util.concurrent.ConcurrentHashMap;
+
 import android.util.Log;
 
 /**
  * Class for logging messages in the common format.
+ * <p>
+ * Messages below the current level (see {@link #setLevel(int)}) are dropped before any formatting is
+ * done. Use the variants with arguments to avoid building message strings which may be filtered out:
+ * every <code>{}</code> in the message is replaced with the next argument only if the message is
+ * going to be logged.
  */
 public class Logger {
 
+    /**
+     * Level which disables logging completely.
+     */
+    public static final int LEVEL_NONE = Integer.MAX_VALUE;
+
     /**
      * Non constructable.
      */
@@ -33,38 +45,166 @@ public class Logger {
      */
     private static final String LOG_TAG = "Meganet Adaptor Integration";
 
+    /**
+     * Placeholder for arguments in messages.
+     */
+    private static final String PLACEHOLDER = "{}";
+
+    /**
+     * Message prefixes cached by caller class.
+     */
+    private static final ConcurrentHashMap<Class<?>, String> PREFIXES = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * Minimal level of logged messages, one of {@link Log} priority constants or {@link #LEVEL_NONE}.
+     */
+    private static volatile int sLevel = Log.DEBUG;
+
+    /**
+     * Sets minimal level of logged messages.
+     * 
+     * @param level one of {@link Log} priority constants or {@link #LEVEL_NONE}
+     */
+    public static void setLevel(final int level) {
+        sLevel = level;
+    }
+
+    /**
+     * Specifies whether messages of the level are logged.
+     */
+    public static boolean isLoggable(final int level) {
+        return level >= sLevel;
+    }
+
+    /**
+     * Parses level name (none, error, warning, info, debug) into a level. Unknown names give
+     * <code>defaultLevel</code>.
+     */
+    public static int parseLevel(final String name, final int defaultLevel) {
+        if ("none".equalsIgnoreCase(name)) {
+            return LEVEL_NONE;
+        } else if ("error".equalsIgnoreCase(name)) {
+            return Log.ERROR;
+        } else if ("warning".equalsIgnoreCase(name)) {
+            return Log.WARN;
+        } else if ("info".equalsIgnoreCase(name)) {
+            return Log.INFO;
+        } else if ("debug".equalsIgnoreCase(name)) {
+            return Log.DEBUG;
+        }
+        return defaultLevel;
+    }
+
     /**
      * Logs error message with classname specified.
      */
     public static void logError(final Object logCaller, final String message) {
-        Log.e(LOG_TAG, format(logCaller, message));
+        if (isLoggable(Log.ERROR)) {
+            Log.e(LOG_TAG, format(logCaller, message));
+        }
+    }
+
+    /**
+     * Logs error message with classname specified substituting the argument.
+     */
+    public static void logError(final Object logCaller, final String message, final Object arg) {
+        if (isLoggable(Log.ERROR)) {
+            Log.e(LOG_TAG, format(logCaller, substitute(message, arg, null)));
+        }
     }
 
     /**
      * Logs warning message with classname specified.
      */
     public static void logWarning(final Object logCaller, final String message) {
-        Log.w(LOG_TAG, format(logCaller, message));
+        if (isLoggable(Log.WARN)) {
+            Log.w(LOG_TAG, format(logCaller, message));
+        }
+    }
+
+    /**
+     * Logs warning message with classname specified substituting the argument.
+     */
+    public static void logWarning(final Object logCaller, final String message, final Object arg) {
+        if (isLoggable(Log.WARN)) {
+            Log.w(LOG_TAG, format(logCaller, substitute(message, arg, null)));
+        }
     }
 
     /**
      * Logs info message with classname specified.
      */
     public static void logInfo(final Object logCaller, final String message) {
-        Log.i(LOG_TAG, format(logCaller, message));
+        if (isLoggable(Log.INFO)) {
+            Log.i(LOG_TAG, format(logCaller, message));
+        }
+    }
+
+    /**
+     * Logs info message with classname specified substituting the argument.
+     */
+    public static void logInfo(final Object logCaller, final String message, final Object arg) {
+        if (isLoggable(Log.INFO)) {
+            Log.i(LOG_TAG, format(logCaller, substitute(message, arg, null)));
+        }
     }
 
     /**
      * Logs debug message with classname specified.
      */
     public static void logDebug(final Object logCaller, final String message) {
-        Log.d(LOG_TAG, format(logCaller, message));
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(LOG_TAG, format(logCaller, message));
+        }
     }
 
     /**
-     * Common format for logging.
+     * Logs debug message with classname specified substituting the argument.
+     */
+    public static void logDebug(final Object logCaller, final String message, final Object arg) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(LOG_TAG, format(logCaller, substitute(message, arg, null)));
+        }
+    }
+
+    /**
+     * Logs debug message with classname specified substituting both arguments.
+     */
+    public static void logDebug(final Object logCaller, final String message, final Object arg1, final Object arg2) {
+        if (isLoggable(Log.DEBUG)) {
+            Log.d(LOG_TAG, format(logCaller, substitute(message, arg1, arg2)));
+        }
+    }
+
+    /**
+     * Common format for logging. Caller may be an instance or a class for static code.
      */
     private static String format(final Object logCaller, final String message) {
-        return logCaller.getClass().getName() + " says: " + message;
+        final Class<?> callerClass = logCaller instanceof Class<?> ? (Class<?>)logCaller : logCaller.getClass();
+        String prefix = PREFIXES.get(callerClass);
+        if (prefix == null) {
+            prefix = callerClass.getName() + " says: ";
+            PREFIXES.put(callerClass, prefix);
+        }
+        return prefix + message;
+    }
+
+    /**
+     * Replaces the first two placeholders with the arguments.
+     */
+    private static String substitute(final String message, final Object arg1, final Object arg2) {
+        final StringBuilder builder = new StringBuilder(message.length() + 32);
+        int start = 0;
+        int index = message.indexOf(PLACEHOLDER);
+        if (index >= 0) {
+            builder.append(message, start, index).append(arg1);
+            start = index + PLACEHOLDER.length();
+            index = message.indexOf(PLACEHOLDER, start);
+            if (index >= 0) {
+                builder.append(message, start, index).append(arg2);
+                start = index + PLACEHOLDER.length();
+            }
+        }
+        return builder.append(message, start, message.length()).toString();
     }
 }
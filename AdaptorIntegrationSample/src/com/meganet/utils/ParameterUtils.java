@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.utils;
+
+import java.util.Map;
+
+/**
+ * Helper methods for reading typed values out of the parameter maps passed by Burstly SDK.
+ * <p>
+ * Values may come either as {@link Number} instances or as strings (when they were parsed from the
+ * server JSON), so both forms are accepted.
+ */
+public class ParameterUtils {
+
+    /**
+     * Non constructable.
+     */
+    private ParameterUtils() {
+    }
+
+    /**
+     * Returns an int value for the specified key or <code>defaultValue</code> if the value is absent
+     * or can not be parsed.
+     */
+    public static int getInt(final Map<String, ?> params, final String key, final int defaultValue) {
+        return (int)getLong(params, key, defaultValue);
+    }
+
+    /**
+     * Returns a long value for the specified key or <code>defaultValue</code> if the value is absent
+     * or can not be parsed.
+     */
+    public static long getLong(final Map<String, ?> params, final String key, final long defaultValue) {
+        final Object value = params != null ? params.get(key) : null;
+        if (value instanceof Number) {
+            return ((Number)value).longValue();
+        }
+        if (value instanceof String) {
+            try {
+                return Long.parseLong(((String)value).trim());
+            }
+            catch (final NumberFormatException nfe) {
+                // fall through to the default value
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns a boolean value for the specified key or <code>defaultValue</code> if the value is
+     * absent. Strings "true" and "YES" are treated as true regardless of case.
+     */
+    public static boolean getBoolean(final Map<String, ?> params, final String key, final boolean defaultValue) {
+        final Object value = params != null ? params.get(key) : null;
+        if (value instanceof Boolean) {
+            return ((Boolean)value).booleanValue();
+        }
+        if (value instanceof String) {
+            return "true".equalsIgnoreCase((String)value) || "YES".equalsIgnoreCase((String)value);
+        }
+        return defaultValue;
+    }
+
+}
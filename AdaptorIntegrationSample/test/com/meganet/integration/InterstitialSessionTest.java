@@ -0,0 +1,254 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.integration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import android.widget.ImageView;
+
+/**
+ * Stress tests of {@link InterstitialSession} racing {@link InterstitialSession#begin(ImageView)},
+ * {@link InterstitialSession#dismiss()} and {@link InterstitialSession#claimView()} from several
+ * threads.
+ */
+public class InterstitialSessionTest {
+
+    /**
+     * Number of racing threads.
+     */
+    private static final int THREADS = 8;
+
+    /**
+     * Number of races per test.
+     */
+    private static final int ROUNDS = 1000;
+
+    /**
+     * Runs the racing threads.
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * Interstitial view of the sessions.
+     */
+    private ImageView mImageView;
+
+    /**
+     * Creates the threads and makes sure no session is left from another test.
+     */
+    @Before
+    public void setUp() {
+        mExecutor = Executors.newFixedThreadPool(THREADS);
+        mImageView = mock(ImageView.class);
+        dismissCurrent();
+    }
+
+    /**
+     * Stops the threads and dismisses the session left by the test.
+     */
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        dismissCurrent();
+    }
+
+    /**
+     * Threads beginning and dismissing sessions in a loop never see two live sessions at once.
+     */
+    @Test
+    public void neverShowsTwoSessions() throws Exception {
+        final AtomicInteger live = new AtomicInteger();
+        final AtomicInteger overlaps = new AtomicInteger();
+        final AtomicInteger shown = new AtomicInteger();
+        race(new Callable<Object>() {
+
+            @Override
+            public Object call() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    final InterstitialSession session = InterstitialSession.begin(mImageView);
+                    if (session == null) {
+                        continue;
+                    }
+                    if (live.incrementAndGet() != 1) {
+                        overlaps.incrementAndGet();
+                    }
+                    session.markShowing();
+                    shown.incrementAndGet();
+                    live.decrementAndGet();
+                    if (!session.dismiss()) {
+                        overlaps.incrementAndGet();
+                    }
+                }
+                return null;
+            }
+
+        });
+        assertEquals(0, overlaps.get());
+        assertTrue(shown.get() > 0);
+        assertNull(InterstitialSession.current());
+    }
+
+    /**
+     * Of the threads dismissing the same session only one succeeds and the next session can begin.
+     */
+    @Test
+    public void dismissesOnce() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            final InterstitialSession session = InterstitialSession.begin(mImageView);
+            assertNotNull(session);
+            final List<Object> results = race(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    session.markShowing();
+                    return Boolean.valueOf(session.dismiss());
+                }
+
+            });
+            assertEquals(1, count(results, Boolean.TRUE));
+            assertEquals(InterstitialSession.State.DISMISSED, session.getState());
+            assertNull(InterstitialSession.current());
+        }
+    }
+
+    /**
+     * Of the threads claiming the view of the same session only one gets it.
+     */
+    @Test
+    public void claimsViewOnce() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            final InterstitialSession session = InterstitialSession.begin(mImageView);
+            assertNotNull(session);
+            final List<Object> results = race(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    return session.claimView();
+                }
+
+            });
+            assertEquals(1, count(results, mImageView));
+            assertEquals(THREADS - 1, count(results, null));
+            session.dismiss();
+        }
+    }
+
+    /**
+     * Threads beginning sessions while the live one is being dismissed start at most one session,
+     * and a session can always begin once the dismissal is over.
+     */
+    @Test
+    public void beginsOnceAfterDismiss() throws Exception {
+        for (int i = 0; i < ROUNDS; i++) {
+            final InterstitialSession session = InterstitialSession.begin(mImageView);
+            assertNotNull(session);
+            session.markShowing();
+            final AtomicInteger index = new AtomicInteger();
+            final List<Object> results = race(new Callable<Object>() {
+
+                @Override
+                public Object call() {
+                    if (index.getAndIncrement() == 0) {
+                        session.dismiss();
+                        return null;
+                    }
+                    return InterstitialSession.begin(mImageView);
+                }
+
+            });
+            final int begun = THREADS - count(results, null);
+            assertTrue("Sessions begun: " + begun, begun <= 1);
+            InterstitialSession next = InterstitialSession.current();
+            if (begun == 0) {
+                assertNull(next);
+                next = InterstitialSession.begin(mImageView);
+                assertNotNull(next);
+            } else {
+                assertNotNull(next);
+                assertTrue(results.contains(next));
+            }
+            assertTrue(next.dismiss());
+        }
+    }
+
+    /**
+     * Runs the task on all threads at once.
+     * 
+     * @return results of the threads
+     */
+    private List<Object> race(final Callable<Object> task) throws InterruptedException, ExecutionException {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(mExecutor.submit(new Callable<Object>() {
+
+                @Override
+                public Object call() throws Exception {
+                    barrier.await();
+                    return task.call();
+                }
+
+            }));
+        }
+        final List<Object> results = new ArrayList<Object>();
+        for (final Future<Object> future : futures) {
+            results.add(future.get());
+        }
+        return results;
+    }
+
+    /**
+     * Returns the number of results which are the expected object.
+     */
+    private static int count(final List<Object> results, final Object expected) {
+        int count = 0;
+        for (final Object result : results) {
+            if (result == expected) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Dismisses the live session if there is one.
+     */
+    private static void dismissCurrent() {
+        final InterstitialSession current = InterstitialSession.current();
+        if (current != null) {
+            current.dismiss();
+        }
+    }
+
+}
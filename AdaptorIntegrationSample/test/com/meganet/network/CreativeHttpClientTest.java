@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.meganet.metrics.FetchTrace;
+import com.meganet.metrics.Phase;
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CancellationToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Tests of {@link CreativeHttpClient} against a local HTTP server.
+ */
+public class CreativeHttpClientTest {
+
+    /**
+     * Creative served by the test server.
+     */
+    private static final byte[] CREATIVE = "creative bytes, creative bytes, creative bytes".getBytes();
+
+    /**
+     * Entity tag of the creative.
+     */
+    private static final String ETAG = "\"v1\"";
+
+    /**
+     * Deadline of a single request in milliseconds, generous enough for a slow test machine.
+     */
+    private static final long DEADLINE = 10000;
+
+    /**
+     * Time in milliseconds the stalling handler holds the body back.
+     */
+    private static final long STALL = 3000;
+
+    /**
+     * Local server standing in for the creative server.
+     */
+    private HttpServer mServer;
+
+    /**
+     * Base url of the server.
+     */
+    private String mBaseUrl;
+
+    /**
+     * Starts the server.
+     */
+    @Before
+    public void setUp() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.createContext("/creative", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    exchange.sendResponseHeaders(304, -1);
+                } else {
+                    exchange.getResponseHeaders().set("ETag", ETAG);
+                    send(exchange, CREATIVE);
+                }
+                exchange.close();
+            }
+
+        });
+        mServer.createContext("/gzip", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                final GZIPOutputStream out = new GZIPOutputStream(compressed);
+                out.write(CREATIVE);
+                out.close();
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+                send(exchange, compressed.toByteArray());
+                exchange.close();
+            }
+
+        });
+        mServer.createContext("/stall", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                // headers go out right away, the body never comes within the deadline
+                exchange.sendResponseHeaders(200, CREATIVE.length);
+                try {
+                    Thread.sleep(STALL);
+                }
+                catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                exchange.close();
+            }
+
+        });
+        mServer.createContext("/unavailable", new HttpHandler() {
+
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+
+        });
+        mServer.start();
+        mBaseUrl = "http://127.0.0.1:" + mServer.getAddress().getPort();
+    }
+
+    /**
+     * Stops the server.
+     */
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    /**
+     * A plain response is returned with its validators and timed by phase.
+     */
+    @Test
+    public void downloadsCreativeWithValidators() throws IOException {
+        final FetchTrace trace = new FetchTrace();
+        final CreativeHttpClient.Response response = get("/creative", null, trace, deadline(DEADLINE));
+        assertFalse(response.isNotModified());
+        assertArrayEquals(CREATIVE, response.getBody());
+        assertEquals(ETAG, response.getETag());
+        assertTrue(trace.has(Phase.CONNECT));
+        assertTrue(trace.has(Phase.DOWNLOAD));
+    }
+
+    /**
+     * A cached creative with a matching entity tag is revalidated without downloading it.
+     */
+    @Test
+    public void revalidatesCachedCreative() throws IOException {
+        final CachedCreative cached = new CachedCreative(CREATIVE, ETAG, null, true);
+        final CreativeHttpClient.Response response = get("/creative", cached, new FetchTrace(), deadline(DEADLINE));
+        assertTrue(response.isNotModified());
+        assertEquals(ETAG, response.getETag());
+    }
+
+    /**
+     * A cached creative with an outdated entity tag is downloaded again.
+     */
+    @Test
+    public void downloadsChangedCreative() throws IOException {
+        final CachedCreative cached = new CachedCreative(new byte[1], "\"v0\"", null, true);
+        final CreativeHttpClient.Response response = get("/creative", cached, new FetchTrace(), deadline(DEADLINE));
+        assertFalse(response.isNotModified());
+        assertArrayEquals(CREATIVE, response.getBody());
+    }
+
+    /**
+     * A gzip encoded body is decoded.
+     */
+    @Test
+    public void decodesGzipBody() throws IOException {
+        final CreativeHttpClient.Response response = get("/gzip", null, new FetchTrace(), deadline(DEADLINE));
+        assertArrayEquals(CREATIVE, response.getBody());
+    }
+
+    /**
+     * A body which does not arrive by the fetch deadline fails the request soon after the deadline.
+     */
+    @Test
+    public void abortsStalledBodyAtDeadline() throws IOException {
+        final long start = System.currentTimeMillis();
+        try {
+            get("/stall", null, new FetchTrace(), deadline(500));
+            fail("Stalled body was read.");
+        }
+        catch (final InterruptedIOException e) {
+            // SocketTimeoutException is an InterruptedIOException too
+            final long elapsed = System.currentTimeMillis() - start;
+            assertTrue("Aborted after " + elapsed + " ms", elapsed < STALL);
+        }
+    }
+
+    /**
+     * A request whose deadline has passed is not sent.
+     */
+    @Test(expected = SocketTimeoutException.class)
+    public void rejectsPassedDeadline() throws IOException {
+        get("/creative", null, new FetchTrace(), System.currentTimeMillis() - 1);
+    }
+
+    /**
+     * Server errors are reported as retryable status errors.
+     */
+    @Test
+    public void reportsServerError() throws IOException {
+        try {
+            get("/unavailable", null, new FetchTrace(), deadline(DEADLINE));
+            fail("Error response was accepted.");
+        }
+        catch (final CreativeHttpClient.StatusException e) {
+            assertEquals(503, e.getResponseCode());
+            assertTrue(e.isRetryable());
+        }
+    }
+
+    /**
+     * Requests the path from the test server.
+     */
+    private CreativeHttpClient.Response get(final String path, final CachedCreative cached, final FetchTrace trace,
+        final long deadline) throws IOException {
+        return CreativeHttpClient.getInstance().get(mBaseUrl + path, cached, trace, new CancellationToken(),
+            deadline);
+    }
+
+    /**
+     * Returns {@link System#currentTimeMillis()} the specified number of milliseconds from now.
+     */
+    private static long deadline(final long millis) {
+        return System.currentTimeMillis() + millis;
+    }
+
+    /**
+     * Sends a 200 response with the body.
+     */
+    private static void send(final HttpExchange exchange, final byte[] body) throws IOException {
+        exchange.sendResponseHeaders(200, body.length);
+        final OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+}
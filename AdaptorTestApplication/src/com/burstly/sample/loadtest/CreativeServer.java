@@ -0,0 +1,292 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.burstly.sample.loadtest;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Local HTTP server standing in for the creative CDN.
+ * <p>
+ * Serves <code>GET /creative/&lt;index&gt;</code> from the loopback interface. Every response waits
+ * for the configured latency, fails with <code>503</code> at the configured error rate and is written
+ * no faster than the configured bandwidth, so the adaptors see a slow mobile network on a device with
+ * a fast one. Connections are closed after each response.
+ */
+public class CreativeServer implements Runnable {
+
+    /**
+     * Log tag.
+     */
+    private static final String TAG = "CreativeServer";
+
+    /**
+     * Interval in milliseconds between throttled writes.
+     */
+    private static final int WRITE_INTERVAL = 20;
+
+    /**
+     * Creatives served by index.
+     */
+    private final byte[][] mCreatives;
+
+    /**
+     * Delay in milliseconds before a response is sent.
+     */
+    private final long mLatency;
+
+    /**
+     * Bandwidth of one connection in bytes per second or 0 for unlimited.
+     */
+    private final int mBytesPerSecond;
+
+    /**
+     * Share of requests failing with <code>503</code>.
+     */
+    private final float mErrorRate;
+
+    /**
+     * Decides which requests fail.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Serves accepted connections.
+     */
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+
+    /**
+     * Number of requests received.
+     */
+    private final AtomicLong mRequests = new AtomicLong();
+
+    /**
+     * Number of requests failed on purpose.
+     */
+    private final AtomicLong mErrors = new AtomicLong();
+
+    /**
+     * Number of body bytes sent.
+     */
+    private final AtomicLong mBytesServed = new AtomicLong();
+
+    /**
+     * Listening socket. Null until started.
+     */
+    private volatile ServerSocket mServerSocket;
+
+    /**
+     * Constructs new instance.
+     * 
+     * @param creatives creatives served by index
+     * @param latency delay in milliseconds before a response is sent
+     * @param bytesPerSecond bandwidth of one connection in bytes per second or 0 for unlimited
+     * @param errorRate share of requests failing with <code>503</code>, from 0 to 1
+     */
+    public CreativeServer(final byte[][] creatives, final long latency, final int bytesPerSecond,
+        final float errorRate) {
+        mCreatives = creatives;
+        mLatency = latency;
+        mBytesPerSecond = bytesPerSecond;
+        mErrorRate = errorRate;
+    }
+
+    /**
+     * Starts listening on a free loopback port.
+     * 
+     * @return base url of the server, e.g. <code>http://127.0.0.1:40123/</code>
+     */
+    public String start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        final Thread thread = new Thread(this, TAG);
+        thread.setDaemon(true);
+        thread.start();
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/";
+    }
+
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        final ServerSocket serverSocket = mServerSocket;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            }
+            catch (final IOException e) {
+                // nothing to do
+            }
+        }
+        mExecutor.shutdownNow();
+    }
+
+    /**
+     * Returns url of the creative.
+     */
+    public String getUrl(final int index) {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + "/creative/" + index;
+    }
+
+    /**
+     * Returns number of requests received.
+     */
+    public long getRequests() {
+        return mRequests.get();
+    }
+
+    /**
+     * Returns number of requests failed on purpose.
+     */
+    public long getErrors() {
+        return mErrors.get();
+    }
+
+    /**
+     * Returns number of body bytes sent.
+     */
+    public long getBytesServed() {
+        return mBytesServed.get();
+    }
+
+    @Override
+    public void run() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mExecutor.execute(new Runnable() {
+
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+
+                });
+            }
+            catch (final IOException e) {
+                // closed by stop()
+            }
+        }
+    }
+
+    /**
+     * Answers one request and closes the connection.
+     */
+    private void serve(final Socket socket) {
+        try {
+            final BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+                "ISO-8859-1"));
+            final String requestLine = reader.readLine();
+            String header = reader.readLine();
+            while (header != null && header.length() > 0) {
+                header = reader.readLine();
+            }
+            mRequests.incrementAndGet();
+            Thread.sleep(mLatency);
+            final OutputStream out = socket.getOutputStream();
+            final byte[] creative = findCreative(requestLine);
+            if (creative == null) {
+                writeHead(out, "404 Not Found", 0);
+            } else if (mRandom.nextFloat() < mErrorRate) {
+                mErrors.incrementAndGet();
+                writeHead(out, "503 Service Unavailable", 0);
+            } else {
+                writeHead(out, "200 OK", creative.length);
+                writeBody(out, creative);
+            }
+            out.flush();
+        }
+        catch (final IOException e) {
+            // the client gave up, e.g. on cancel
+        }
+        catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            try {
+                socket.close();
+            }
+            catch (final IOException e) {
+                Log.w(TAG, "Could not close connection", e);
+            }
+        }
+    }
+
+    /**
+     * Returns creative requested by <code>GET /creative/&lt;index&gt;</code> or null.
+     */
+    private byte[] findCreative(final String requestLine) {
+        if (requestLine == null) {
+            return null;
+        }
+        final String[] parts = requestLine.split(" ");
+        final String prefix = "/creative/";
+        if (parts.length < 2 || !parts[1].startsWith(prefix)) {
+            return null;
+        }
+        String path = parts[1].substring(prefix.length());
+        final int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        try {
+            final int index = Integer.parseInt(path);
+            return index >= 0 && index < mCreatives.length ? mCreatives[index] : null;
+        }
+        catch (final NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Writes status line and headers.
+     */
+    private static void writeHead(final OutputStream out, final String status, final int length) throws IOException {
+        final String head = "HTTP/1.1 " + status + "\r\nContent-Type: image/png\r\nContent-Length: " + length
+            + "\r\nCache-Control: no-store\r\nConnection: close\r\n\r\n";
+        out.write(head.getBytes("ISO-8859-1"));
+    }
+
+    /**
+     * Writes the body no faster than the bandwidth allows.
+     */
+    private void writeBody(final OutputStream out, final byte[] body) throws IOException, InterruptedException {
+        if (mBytesPerSecond <= 0) {
+            out.write(body);
+            mBytesServed.addAndGet(body.length);
+            return;
+        }
+        final int chunk = Math.max(1, mBytesPerSecond * WRITE_INTERVAL / 1000);
+        for (int offset = 0; offset < body.length; offset += chunk) {
+            final int count = Math.min(chunk, body.length - offset);
+            out.write(body, offset, count);
+            out.flush();
+            mBytesServed.addAndGet(count);
+            Thread.sleep(WRITE_INTERVAL);
+        }
+    }
+
+}
@@ -0,0 +1,475 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.burstly.sample.loadtest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Debug;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import com.burstly.lib.component.IBurstlyAdaptor;
+import com.burstly.lib.component.IBurstlyAdaptor.TransactionCode;
+import com.burstly.lib.component.IBurstlyAdaptorListener;
+import com.meganet.integration.MeganetAdaptorFactory;
+
+/**
+ * Drives concurrent Meganet adaptor transactions against a {@link CreativeServer} the way Burstly SDK
+ * does: <code>startTransaction()</code>, then <code>getNewAd()</code> for banners or
+ * <code>precacheInterstitialAd()</code> for interstitials, and <code>endTransaction()</code> once the
+ * adaptor reported the result or the transaction timed out.
+ * <p>
+ * Runs on the main thread, where the adaptors post their callbacks. Up to the configured number of
+ * transactions are in flight at any time; a new one is started as soon as one ends.
+ */
+public class LoadTest {
+
+    /**
+     * Receives the report of a finished run.
+     */
+    public interface Listener {
+
+        /**
+         * Called on the main thread when all transactions ended.
+         */
+        void onFinished(String report);
+
+    }
+
+    /**
+     * Interval in milliseconds between heap samples.
+     */
+    private static final int HEAP_SAMPLE_INTERVAL = 50;
+
+    /**
+     * Context the adaptors are created with.
+     */
+    private final Context mContext;
+
+    /**
+     * Run settings.
+     */
+    private final Settings mSettings;
+
+    /**
+     * Receives the report.
+     */
+    private final Listener mListener;
+
+    /**
+     * Main thread handler.
+     */
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Creates adaptors.
+     */
+    private final MeganetAdaptorFactory mFactory = new MeganetAdaptorFactory();
+
+    /**
+     * Picks creatives and transaction types.
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Time in microseconds from the start of each filled transaction to <code>didLoad()</code>.
+     */
+    private final long[] mFillTimes;
+
+    /**
+     * Creative server. Null until started.
+     */
+    private CreativeServer mServer;
+
+    /**
+     * Number of transactions started.
+     */
+    private int mStarted;
+
+    /**
+     * Number of transactions in flight.
+     */
+    private int mInFlight;
+
+    /**
+     * Number of filled transactions.
+     */
+    private int mFills;
+
+    /**
+     * Number of transactions failed by the adaptor.
+     */
+    private int mFailures;
+
+    /**
+     * Number of transactions with no result in time.
+     */
+    private int mTimeouts;
+
+    /**
+     * {@link SystemClock#elapsedRealtime()} of the run start.
+     */
+    private long mStartTime;
+
+    /**
+     * Highest sampled Java heap use in bytes.
+     */
+    private long mPeakHeap;
+
+    /**
+     * Highest sampled native heap use in bytes, where bitmap pixels live on some platform versions.
+     */
+    private long mPeakNativeHeap;
+
+    /**
+     * Samples the heap while the run is in progress.
+     */
+    private final Runnable mHeapSampler = new Runnable() {
+
+        @Override
+        public void run() {
+            sampleHeap();
+            mHandler.postDelayed(this, HEAP_SAMPLE_INTERVAL);
+        }
+
+    };
+
+    /**
+     * Settings of a run.
+     */
+    public static class Settings {
+
+        /**
+         * Number of transactions in flight.
+         */
+        public int mConcurrency = 8;
+
+        /**
+         * Total number of transactions.
+         */
+        public int mTransactions = 200;
+
+        /**
+         * Server latency in milliseconds.
+         */
+        public long mLatency = 100;
+
+        /**
+         * Bandwidth of one connection in bytes per second or 0 for unlimited.
+         */
+        public int mBytesPerSecond = 256 * 1024;
+
+        /**
+         * Share of requests the server fails.
+         */
+        public float mErrorRate;
+
+        /**
+         * Sides in pixels of the square creatives served.
+         */
+        public int[] mCreativeSizes = {160, 320, 480};
+
+        /**
+         * Share of transactions precaching an interstitial.
+         */
+        public float mInterstitialRate = 0.2f;
+
+        /**
+         * Specifies whether every transaction requests a new url, so caches do not serve it.
+         */
+        public boolean mIsCacheBusting = true;
+
+        /**
+         * Time in milliseconds after which a transaction is given up.
+         */
+        public long mTimeout = 20000;
+
+        @Override
+        public String toString() {
+            return "concurrency=" + mConcurrency + " transactions=" + mTransactions + " latency=" + mLatency
+                + "ms bandwidth=" + mBytesPerSecond + "B/s errorRate=" + mErrorRate + " sizes="
+                + Arrays.toString(mCreativeSizes) + " interstitialRate=" + mInterstitialRate + " cacheBusting="
+                + mIsCacheBusting;
+        }
+
+    }
+
+    /**
+     * One adaptor transaction.
+     */
+    private class Transaction implements IBurstlyAdaptorListener, Runnable {
+
+        /**
+         * Adaptor of the transaction.
+         */
+        final IBurstlyAdaptor mAdaptor;
+
+        /**
+         * {@link System#nanoTime()} of the transaction start.
+         */
+        final long mStart;
+
+        /**
+         * Specifies whether the transaction has ended.
+         */
+        boolean mIsEnded;
+
+        /**
+         * Constructs new instance.
+         */
+        Transaction(final IBurstlyAdaptor adaptor) {
+            mAdaptor = adaptor;
+            mStart = System.nanoTime();
+        }
+
+        @Override
+        public void didLoad(final String networkName, final boolean isInterstitial) {
+            if (!mIsEnded) {
+                mFillTimes[mFills++] = (System.nanoTime() - mStart) / 1000;
+                end(TransactionCode.CODE_SUCCESS);
+            }
+        }
+
+        @Override
+        public void failedToLoad(final String networkName, final boolean isInterstitial, final String reason) {
+            if (!mIsEnded) {
+                mFailures++;
+                end(TransactionCode.CODE_FAILED);
+            }
+        }
+
+        /**
+         * Gives the transaction up.
+         */
+        @Override
+        public void run() {
+            if (!mIsEnded) {
+                mTimeouts++;
+                end(TransactionCode.CODE_CANCELLED);
+            }
+        }
+
+        /**
+         * Ends the transaction and starts the next one.
+         */
+        private void end(final TransactionCode code) {
+            mIsEnded = true;
+            mHandler.removeCallbacks(this);
+            mAdaptor.endTransaction(code);
+            mAdaptor.destroy();
+            mInFlight--;
+            // not from inside the adaptor callback
+            mHandler.post(new Runnable() {
+
+                @Override
+                public void run() {
+                    startTransactions();
+                }
+
+            });
+        }
+
+        @Override
+        public void adWasClicked(final String networkName, final boolean isInterstitial) {
+            // not clicked
+        }
+
+        @Override
+        public void shownFullscreen(final FullscreenInfo info) {
+            // interstitials are only precached
+        }
+
+        @Override
+        public void dismissedFullscreen(final FullscreenInfo info) {
+            // interstitials are only precached
+        }
+
+        @Override
+        public void onExpand(final String networkName, final boolean isFullscreen) {
+            // not expandable
+        }
+
+        @Override
+        public void onCollapse(final String networkName) {
+            // not expandable
+        }
+
+        @Override
+        public void onShow(final String networkName) {
+            // not shown
+        }
+
+        @Override
+        public void onHide(final String networkName) {
+            // not shown
+        }
+
+    }
+
+    /**
+     * Constructs new instance.
+     */
+    public LoadTest(final Context context, final Settings settings, final Listener listener) {
+        mContext = context;
+        mSettings = settings;
+        mListener = listener;
+        mFillTimes = new long[settings.mTransactions];
+    }
+
+    /**
+     * Starts the run. Must be called on the main thread.
+     */
+    public void start() throws IOException {
+        mServer = new CreativeServer(createCreatives(), mSettings.mLatency, mSettings.mBytesPerSecond,
+            mSettings.mErrorRate);
+        mServer.start();
+        final Map<String, Object> params = new HashMap<String, Object>();
+        params.put("context", mContext.getApplicationContext());
+        mFactory.initialize(params);
+        System.gc();
+        Debug.startAllocCounting();
+        mStartTime = SystemClock.elapsedRealtime();
+        mHeapSampler.run();
+        startTransactions();
+    }
+
+    /**
+     * Fills the free slots with new transactions or finishes the run.
+     */
+    private void startTransactions() {
+        while (mInFlight < mSettings.mConcurrency && mStarted < mSettings.mTransactions) {
+            startTransaction();
+        }
+        if (mInFlight == 0 && mStarted == mSettings.mTransactions) {
+            finish();
+        }
+    }
+
+    /**
+     * Starts a transaction the way Burstly SDK does.
+     */
+    private void startTransaction() {
+        final int number = mStarted++;
+        mInFlight++;
+        final Map<String, Object> createParams = new HashMap<String, Object>();
+        createParams.put("context", mContext);
+        createParams.put("viewId", "loadtest" + number % mSettings.mConcurrency);
+        createParams.put("adaptorName", "meganet");
+        final IBurstlyAdaptor adaptor = mFactory.createAdaptor(createParams);
+        final Transaction transaction = new Transaction(adaptor);
+        adaptor.setAdaptorListener(transaction);
+        mHandler.postDelayed(transaction, mSettings.mTimeout);
+
+        final boolean isInterstitial = mRandom.nextFloat() < mSettings.mInterstitialRate;
+        String url = mServer.getUrl(mRandom.nextInt(mSettings.mCreativeSizes.length));
+        if (mSettings.mIsCacheBusting) {
+            url += "?n=" + number;
+        }
+        final Map<String, Object> serverParams = new HashMap<String, Object>();
+        serverParams.put("imageUrl", url);
+        serverParams.put("isInterstitial", isInterstitial ? "YES" : "NO");
+        try {
+            adaptor.startTransaction(serverParams);
+            if (isInterstitial) {
+                adaptor.precacheInterstitialAd();
+            } else {
+                adaptor.getNewAd();
+            }
+        }
+        catch (final IllegalArgumentException e) {
+            transaction.failedToLoad("meganet", isInterstitial, e.getMessage());
+        }
+    }
+
+    /**
+     * Stops the run and reports the results.
+     */
+    private void finish() {
+        final long elapsed = Math.max(1, SystemClock.elapsedRealtime() - mStartTime);
+        mHandler.removeCallbacks(mHeapSampler);
+        sampleHeap();
+        Debug.stopAllocCounting();
+        final long allocated = Debug.getGlobalAllocSize();
+        mServer.stop();
+        mFactory.destroy();
+
+        final long[] fillTimes = Arrays.copyOf(mFillTimes, mFills);
+        Arrays.sort(fillTimes);
+        final StringBuilder report = new StringBuilder();
+        report.append(mSettings).append('\n');
+        report.append("transactions: ").append(mStarted).append(" fills: ").append(mFills).append(" failures: ")
+            .append(mFailures).append(" timeouts: ").append(mTimeouts).append('\n');
+        report.append("fills/s: ").append(mFills * 1000f / elapsed).append(" in ").append(elapsed).append("ms\n");
+        report.append("time to didLoad p50: ").append(percentile(fillTimes, 50) / 1000f).append("ms p99: ")
+            .append(percentile(fillTimes, 99) / 1000f).append("ms\n");
+        report.append("server requests: ").append(mServer.getRequests()).append(" errors: ")
+            .append(mServer.getErrors()).append(" bytes: ").append(mServer.getBytesServed()).append('\n');
+        report.append("allocated: ").append(allocated).append("B peak heap: ").append(mPeakHeap)
+            .append("B peak native heap: ").append(mPeakNativeHeap).append("B\n");
+        report.append(MeganetAdaptorFactory.getMetrics());
+        mListener.onFinished(report.toString());
+    }
+
+    /**
+     * Updates the heap peaks.
+     */
+    private void sampleHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        mPeakHeap = Math.max(mPeakHeap, runtime.totalMemory() - runtime.freeMemory());
+        mPeakNativeHeap = Math.max(mPeakNativeHeap, Debug.getNativeHeapAllocatedSize());
+    }
+
+    /**
+     * Generates a noise PNG of every configured size. Noise does not compress, so the payload grows
+     * with the number of pixels.
+     */
+    private byte[][] createCreatives() {
+        final int[] sizes = mSettings.mCreativeSizes;
+        final byte[][] creatives = new byte[sizes.length][];
+        for (int i = 0; i < sizes.length; i++) {
+            final int[] pixels = new int[sizes[i] * sizes[i]];
+            for (int j = 0; j < pixels.length; j++) {
+                pixels[j] = 0xFF000000 | mRandom.nextInt(0x1000000);
+            }
+            final Bitmap bitmap = Bitmap.createBitmap(pixels, sizes[i], sizes[i], Bitmap.Config.ARGB_8888);
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+            bitmap.recycle();
+            creatives[i] = out.toByteArray();
+        }
+        return creatives;
+    }
+
+    /**
+     * Returns the percentile of sorted values or 0 if there are none.
+     */
+    private static long percentile(final long[] sorted, final int percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        final int index = (int)Math.ceil(percentile / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, index)];
+    }
+
+}
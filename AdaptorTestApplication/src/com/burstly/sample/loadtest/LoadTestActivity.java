@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.burstly.sample.loadtest;
+
+import java.io.IOException;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+/**
+ * Runs a {@link LoadTest} and shows its report, which is also written to the log.
+ * <p>
+ * Settings are passed as intent extras, e.g.
+ * <code>adb shell am start -n com.burstly.sample.integration/com.burstly.sample.loadtest.LoadTestActivity
+ * --ei concurrency 16 --ei transactions 500 --ei latency 300 --ei bandwidth 32768 --ef errorRate 0.05
+ * --es creativeSizes 160,320,640</code>. Absent extras leave default values.
+ */
+public class LoadTestActivity extends Activity implements LoadTest.Listener {
+
+    /**
+     * Log tag.
+     */
+    private static final String TAG = "LoadTest";
+
+    /**
+     * Shows the progress and the report.
+     */
+    private TextView mTextView;
+
+    @Override
+    protected void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mTextView = new TextView(this);
+        final ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(mTextView);
+        setContentView(scrollView);
+
+        final LoadTest.Settings settings = readSettings(getIntent());
+        mTextView.setText("Running " + settings);
+        try {
+            new LoadTest(this, settings, this).start();
+        }
+        catch (final IOException e) {
+            Log.e(TAG, "Could not start creative server", e);
+            mTextView.setText("Could not start creative server: " + e);
+        }
+    }
+
+    @Override
+    public void onFinished(final String report) {
+        Log.i(TAG, report);
+        mTextView.setText(report);
+    }
+
+    /**
+     * Reads settings from the intent extras.
+     */
+    private static LoadTest.Settings readSettings(final Intent intent) {
+        final LoadTest.Settings settings = new LoadTest.Settings();
+        settings.mConcurrency = intent.getIntExtra("concurrency", settings.mConcurrency);
+        settings.mTransactions = intent.getIntExtra("transactions", settings.mTransactions);
+        settings.mLatency = intent.getIntExtra("latency", (int)settings.mLatency);
+        settings.mBytesPerSecond = intent.getIntExtra("bandwidth", settings.mBytesPerSecond);
+        settings.mErrorRate = intent.getFloatExtra("errorRate", settings.mErrorRate);
+        settings.mInterstitialRate = intent.getFloatExtra("interstitialRate", settings.mInterstitialRate);
+        settings.mIsCacheBusting = intent.getBooleanExtra("cacheBusting", settings.mIsCacheBusting);
+        settings.mTimeout = intent.getIntExtra("timeout", (int)settings.mTimeout);
+        final String sizes = intent.getStringExtra("creativeSizes");
+        if (sizes != null) {
+            final String[] parts = sizes.split(",");
+            settings.mCreativeSizes = new int[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                settings.mCreativeSizes[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        return settings;
+    }
+
+}
@@ -0,0 +1,163 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.meganet.pipeline.CachedCreative;
+import com.meganet.pipeline.CreativeLookup;
+import com.meganet.pipeline.DecodePlan;
+import com.meganet.pipeline.DefaultUrlNormalizer;
+import com.meganet.pipeline.ImageHeaders;
+import com.meganet.pipeline.StreamReader;
+import com.meganet.pipeline.UrlNormalizer;
+
+/**
+ * Cache hit and miss paths of the pipeline up to the decoder, in the order the fetch runs the stages.
+ * <p>
+ * A hit looks the creative up, checks its header and plans the decode. A miss additionally
+ * normalizes the url, reads the body from a stream standing in for the network and stores it. The
+ * lookup is a heap map behind {@link CreativeLookup}, so the numbers show the cost of the pipeline
+ * stages rather than of the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CreativeLookupBenchmark {
+
+    /**
+     * Url of the cached creative.
+     */
+    private static final String HIT_URL = "http://cdn.example.com/creatives/320x50/cached.png";
+
+    /**
+     * Url of a creative which is never cached between invocations.
+     */
+    private static final String MISS_URL = "http://cdn.example.com/creatives/320x50/new banner.png";
+
+    /**
+     * Size of the creative body in bytes.
+     */
+    private static final int CREATIVE_SIZE = 16 * 1024;
+
+    /**
+     * Lookup stage.
+     */
+    private final HeapCreativeLookup mLookup = new HeapCreativeLookup();
+
+    /**
+     * Url normalization stage.
+     */
+    private final UrlNormalizer mNormalizer = new DefaultUrlNormalizer();
+
+    /**
+     * Creative body, an opaque PNG header followed by image data.
+     */
+    private byte[] mCreative;
+
+    /**
+     * Raw creatives held on the heap.
+     */
+    private static class HeapCreativeLookup implements CreativeLookup {
+
+        /**
+         * Cached creatives mapped by url.
+         */
+        private final Map<String, CachedCreative> mCreatives = new HashMap<String, CachedCreative>();
+
+        @Override
+        public synchronized CachedCreative getCreative(final String url) {
+            return mCreatives.get(url);
+        }
+
+        @Override
+        public synchronized void putCreative(final String url, final byte[] data, final String eTag,
+            final String lastModified) {
+            mCreatives.put(url, new CachedCreative(data, eTag, lastModified, false));
+        }
+
+        @Override
+        public void refreshCreative(final String url) {
+            // entries never expire here
+        }
+
+        @Override
+        public synchronized void removeCreative(final String url) {
+            mCreatives.remove(url);
+        }
+    }
+
+    /**
+     * Generates the creative and caches it under {@link #HIT_URL}.
+     */
+    @Setup
+    public void setUp() {
+        mCreative = Creatives.png(320, 50, false, CREATIVE_SIZE);
+        mLookup.putCreative(HIT_URL, mCreative, "\"v1\"", null);
+    }
+
+    /**
+     * Creative served from the cache.
+     */
+    @Benchmark
+    public DecodePlan hit() {
+        final CachedCreative cached = mLookup.getCreative(HIT_URL);
+        return plan(cached.getData());
+    }
+
+    /**
+     * Creative which is not cached: downloaded, stored and evicted again, so the next invocation misses
+     * too.
+     */
+    @Benchmark
+    public DecodePlan miss(final Blackhole blackhole) throws IOException {
+        if (mLookup.getCreative(MISS_URL) != null) {
+            throw new IllegalStateException("Creative is cached.");
+        }
+        // the normalized url is what the network stage would request
+        blackhole.consume(mNormalizer.normalize(MISS_URL));
+        final byte[] data =
+            StreamReader.readFully(new ByteArrayInputStream(mCreative), mCreative.length, StreamReader.NO_DEADLINE);
+        mLookup.putCreative(MISS_URL, data, "\"v1\"", null);
+        final DecodePlan plan = plan(data);
+        mLookup.removeCreative(MISS_URL);
+        return plan;
+    }
+
+    /**
+     * Checks the header and plans the decode of a banner on a high density display.
+     */
+    private static DecodePlan plan(final byte[] data) {
+        if (!ImageHeaders.isOpaque(data)) {
+            throw new IllegalStateException("Creative is not opaque.");
+        }
+        return DecodePlan.create(Creatives.width(data), Creatives.height(data), 2f);
+    }
+
+}
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.benchmarks;
+
+import java.util.Random;
+
+/**
+ * Generates encoded creative headers for the benchmarks. Only the headers are valid, the image data
+ * is random, which is all the pipeline stages before the decoder look at.
+ */
+final class Creatives {
+
+    /**
+     * PNG file signature.
+     */
+    private static final byte[] PNG_SIGNATURE = {(byte)0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
+    /**
+     * PNG color type of truecolor images.
+     */
+    private static final int PNG_RGB = 2;
+
+    /**
+     * PNG color type of truecolor images with alpha.
+     */
+    private static final int PNG_RGBA = 6;
+
+    /**
+     * Offset of the width in a PNG file.
+     */
+    private static final int PNG_WIDTH_OFFSET = 16;
+
+    /**
+     * Non constructable.
+     */
+    private Creatives() {
+    }
+
+    /**
+     * Returns a PNG of the specified size: signature, IHDR chunk and an IDAT chunk filling the rest.
+     * 
+     * @param width image width
+     * @param height image height
+     * @param hasAlpha whether the color type has an alpha channel
+     * @param size total size in bytes
+     */
+    static byte[] png(final int width, final int height, final boolean hasAlpha, final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        System.arraycopy(PNG_SIGNATURE, 0, data, 0, PNG_SIGNATURE.length);
+        int offset = PNG_SIGNATURE.length;
+        offset = chunk(data, offset, 13, "IHDR");
+        writeInt(data, offset, width);
+        writeInt(data, offset + 4, height);
+        data[offset + 8] = 8;
+        data[offset + 9] = (byte)(hasAlpha ? PNG_RGBA : PNG_RGB);
+        data[offset + 10] = 0;
+        data[offset + 11] = 0;
+        data[offset + 12] = 0;
+        // data and CRC
+        offset += 13 + 4;
+        chunk(data, offset, size - offset - 12, "IDAT");
+        return data;
+    }
+
+    /**
+     * Returns width declared by the PNG header.
+     */
+    static int width(final byte[] png) {
+        return readInt(png, PNG_WIDTH_OFFSET);
+    }
+
+    /**
+     * Returns height declared by the PNG header.
+     */
+    static int height(final byte[] png) {
+        return readInt(png, PNG_WIDTH_OFFSET + 4);
+    }
+
+    /**
+     * Writes chunk length and type.
+     * 
+     * @return offset of the chunk data
+     */
+    private static int chunk(final byte[] data, final int offset, final int length, final String type) {
+        writeInt(data, offset, length);
+        for (int i = 0; i < 4; i++) {
+            data[offset + 4 + i] = (byte)type.charAt(i);
+        }
+        return offset + 8;
+    }
+
+    /**
+     * Writes big endian int.
+     */
+    private static void writeInt(final byte[] data, final int offset, final int value) {
+        data[offset] = (byte)(value >>> 24);
+        data[offset + 1] = (byte)(value >>> 16);
+        data[offset + 2] = (byte)(value >>> 8);
+        data[offset + 3] = (byte)value;
+    }
+
+    /**
+     * Reads big endian int.
+     */
+    private static int readInt(final byte[] data, final int offset) {
+        return (data[offset] & 0xFF) << 24 | (data[offset + 1] & 0xFF) << 16 | (data[offset + 2] & 0xFF) << 8
+            | data[offset + 3] & 0xFF;
+    }
+
+}
@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.meganet.pipeline.DecodePlan;
+import com.meganet.pipeline.ImageHeaders;
+
+/**
+ * Sizing math and header inspection which run before every decode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DecodePlanBenchmark {
+
+    /**
+     * Opaque banner creative.
+     */
+    private byte[] mOpaque;
+
+    /**
+     * Banner creative with an alpha channel.
+     */
+    private byte[] mTranslucent;
+
+    /**
+     * Generates the creatives.
+     */
+    @Setup
+    public void setUp() {
+        mOpaque = Creatives.png(320, 50, false, 4096);
+        mTranslucent = Creatives.png(320, 50, true, 4096);
+    }
+
+    /**
+     * Banner scaled up for a high density display.
+     */
+    @Benchmark
+    public DecodePlan bannerPlan() {
+        return DecodePlan.create(320, 50, 1.5f);
+    }
+
+    /**
+     * Oversized interstitial sampled down and capped at the screen size.
+     */
+    @Benchmark
+    public DecodePlan interstitialPlan() {
+        return DecodePlan.create(2048, 3072, 2f, 1280);
+    }
+
+    /**
+     * Header of an opaque PNG, walked up to the image data.
+     */
+    @Benchmark
+    public boolean opaqueHeader() {
+        return ImageHeaders.isOpaque(mOpaque);
+    }
+
+    /**
+     * Header of a PNG with alpha, decided by the color type.
+     */
+    @Benchmark
+    public boolean translucentHeader() {
+        return ImageHeaders.isOpaque(mTranslucent);
+    }
+
+}
@@ -0,0 +1,97 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.meganet.pipeline.FetchPriority;
+import com.meganet.pipeline.PrioritizedExecutor;
+
+/**
+ * Scheduling stage: submission of fetches of mixed priority to the bounded pool and their hand off to
+ * the pool threads. The fetches themselves do nothing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrioritizedExecutorBenchmark {
+
+    /**
+     * Number of fetches submitted per invocation.
+     */
+    private static final int BATCH = 64;
+
+    /**
+     * Default number of fetch threads of the adaptor.
+     */
+    private static final int POOL_SIZE = 2;
+
+    /**
+     * Executor under test.
+     */
+    private PrioritizedExecutor mExecutor;
+
+    /**
+     * Creates the executor.
+     */
+    @Setup
+    public void setUp() {
+        mExecutor = new PrioritizedExecutor(POOL_SIZE, BATCH, new ThreadFactory() {
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                // the pool has no shutdown, daemon threads let the benchmark fork exit
+                final Thread thread = new Thread(runnable, "Benchmark fetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+
+        });
+    }
+
+    /**
+     * Submits a batch of fetches, every fourth one precached, and waits for all of them.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void submitBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(BATCH);
+        final Runnable fetch = new Runnable() {
+
+            @Override
+            public void run() {
+                done.countDown();
+            }
+
+        };
+        for (int i = 0; i < BATCH; i++) {
+            mExecutor.submit(fetch, i % 4 == 0 ? FetchPriority.PRECACHE : FetchPriority.IMMEDIATE);
+        }
+        done.await();
+    }
+
+}
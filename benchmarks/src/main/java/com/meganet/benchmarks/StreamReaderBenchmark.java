@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.meganet.pipeline.CancellationToken;
+import com.meganet.pipeline.StreamReader;
+
+/**
+ * Stream handling stage: reading a creative body to the end with deadline and cancellation checks.
+ * The body arrives in segments of a network packet size, as it does from a socket.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StreamReaderBenchmark {
+
+    /**
+     * Maximum number of bytes returned by a single read, a typical TCP segment.
+     */
+    private static final int SEGMENT_SIZE = 1460;
+
+    /**
+     * Size of the creative body in bytes.
+     */
+    @Param({"4096", "65536", "524288"})
+    public int mSize;
+
+    /**
+     * Creative body.
+     */
+    private byte[] mBody;
+
+    /**
+     * Returns at most {@link #SEGMENT_SIZE} bytes per read.
+     */
+    private static class SegmentedInputStream extends FilterInputStream {
+
+        /**
+         * Constructs new instance.
+         */
+        SegmentedInputStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, SEGMENT_SIZE));
+        }
+    }
+
+    /**
+     * Generates the body.
+     */
+    @Setup
+    public void setUp() {
+        mBody = new byte[mSize];
+        new Random(mSize).nextBytes(mBody);
+    }
+
+    /**
+     * Body of a known length, as with a Content-Length header.
+     */
+    @Benchmark
+    public byte[] readKnownLength() throws IOException {
+        return StreamReader.readFully(body(), mSize, StreamReader.NO_DEADLINE, new CancellationToken());
+    }
+
+    /**
+     * Body of an unknown length, as with chunked or compressed responses.
+     */
+    @Benchmark
+    public byte[] readUnknownLength() throws IOException {
+        return StreamReader.readFully(body(), -1, StreamReader.NO_DEADLINE, new CancellationToken());
+    }
+
+    /**
+     * Body which is discarded, as after a 304 response.
+     */
+    @Benchmark
+    public void drain() throws IOException {
+        StreamReader.drain(body(), StreamReader.NO_DEADLINE);
+    }
+
+    /**
+     * Returns a new stream of the body.
+     */
+    private InputStream body() {
+        return new SegmentedInputStream(new ByteArrayInputStream(mBody));
+    }
+
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright 2011 App Media Group LLC.
+ *   
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *******************************************************************************/
+package com.meganet.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import com.meganet.pipeline.DefaultUrlNormalizer;
+import com.meganet.pipeline.UrlNormalizer;
+
+/**
+ * Url normalization stage. Urls without spaces should be returned without copying.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UrlNormalizerBenchmark {
+
+    /**
+     * Normalizer used by the fetch.
+     */
+    private final UrlNormalizer mNormalizer = new DefaultUrlNormalizer();
+
+    /**
+     * Typical creative url.
+     */
+    private final String mCleanUrl = "http://cdn.example.com/creatives/320x50/banner.png";
+
+    /**
+     * Creative url with spaces as received from some servers.
+     */
+    private final String mSpacedUrl = " http://cdn.example.com/creatives/320x50/summer sale banner.png ";
+
+    /**
+     * Url which needs no changes.
+     */
+    @Benchmark
+    public String clean() {
+        return mNormalizer.normalize(mCleanUrl);
+    }
+
+    /**
+     * Url which is trimmed and has its spaces escaped.
+     */
+    @Benchmark
+    public String withSpaces() {
+        return mNormalizer.normalize(mSpacedUrl);
+    }
+
+}